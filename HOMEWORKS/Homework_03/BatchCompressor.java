@@ -0,0 +1,139 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+// Compresses every image of a folder into .rle files in another folder.
+//
+// Every file gets its own task (decode -> compress -> write .rle). The tasks run on virtual threads when the JVM has
+// them (Java 21+), which makes a thread per file cheap even for thousands of files; on older JVMs a normal cached
+// thread pool is used instead. Either way, a Semaphore only lets 'maxConcurrent' files be in memory at the same time,
+// so the heap needed is about maxConcurrent decoded images no matter how big the folder is.
+//
+// A file that fails (corrupt, unreadable...) is reported and counted, and the batch simply continues with the others.
+public class BatchCompressor {
+    // File extensions ImageIO can read (jpg, png, bmp, gif...).
+    private static final Set<String> READABLE_SUFFIXES = new HashSet<>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+
+    private final int tolerance;
+    private final int maxConcurrent;
+
+    // Totals of the whole batch, updated by all the tasks.
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong pixelsProcessed = new AtomicLong();
+
+    public BatchCompressor(int tolerance, int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("At least one file must be allowed to run at a time.");
+        }
+        this.tolerance = tolerance;
+        this.maxConcurrent = maxConcurrent;
+    }
+
+    // Compress every readable image of 'inputDir' into 'outputDir' (created if needed) and print the results.
+    public void run(File inputDir, File outputDir) throws IOException, InterruptedException {
+        File[] files = inputDir.listFiles();
+        if (files == null) {
+            throw new IOException("ERROR: '" + inputDir + "' is not a readable folder.");
+        }
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            throw new IOException("ERROR: could not create the output folder '" + outputDir + "'.");
+        }
+
+        List<File> images = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile() && isImage(file)) {
+                images.add(file);
+            }
+        }
+        images.sort(null); // Same order every time, so the log is easy to compare.
+
+        System.out.println("\nBATCH COMPRESSION: " + images.size() + " images, tolerance = " + tolerance + ", up to " + maxConcurrent + " at a time");
+        Semaphore slots = new Semaphore(maxConcurrent);
+        long start = System.nanoTime();
+
+        ExecutorService executor = newExecutor();
+        try {
+            for (File image : images) {
+                slots.acquire(); // Wait here until one of the running files is done.
+                executor.execute(() -> {
+                    try {
+                        compressOne(image, outputDir);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("\n--- BATCH SUMMARY ---");
+        System.out.println("Compressed: " + succeeded.get() + " images, failed: " + failed.get());
+        System.out.println(String.format(Locale.ROOT, "Total time: %.2f s", seconds));
+        System.out.println(String.format(Locale.ROOT, "Throughput: %.2f images/s, %.2f MB/s read, %.2f Mpixels/s",
+            succeeded.get() / seconds, bytesRead.get() / seconds / 1e6, pixelsProcessed.get() / seconds / 1e6));
+        System.out.println(String.format(Locale.ROOT, "Data: %d bytes read, %d bytes written", bytesRead.get(), bytesWritten.get()));
+    }
+
+    // Decode, compress and write one file. Any error is reported here so the other files keep going.
+    private void compressOne(File image, File outputDir) {
+        long start = System.nanoTime();
+        try {
+            CustomImage original = CustomImage.fromFile(image.getAbsolutePath());
+            CompressedImage compressor = new CompressedImage(tolerance);
+            compressor.setVerbose(false);
+            compressor.analyze(original);
+
+            // The extension is kept (photo.jpg -> photo.jpg.rle), so photo.jpg and photo.png in the same folder can't
+            // both be written to photo.rle at the same time.
+            File output = new File(outputDir, image.getName() + ".rle");
+            compressor.saveCompressed(output.getAbsolutePath());
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long pixels = (long) original.getWidth() * original.getHeight();
+            succeeded.incrementAndGet();
+            bytesRead.addAndGet(image.length());
+            bytesWritten.addAndGet(output.length());
+            pixelsProcessed.addAndGet(pixels);
+            System.out.println(String.format(Locale.ROOT, "  OK   %s: %d x %d, %d runs, %d -> %d bytes in %.1f ms (%.2f MB/s)",
+                image.getName(), original.getWidth(), original.getHeight(), compressor.getRuns().size(),
+                image.length(), output.length(), seconds * 1000, image.length() / seconds / 1e6));
+        } catch (IOException | RuntimeException e) { // Not Errors: an OutOfMemoryError must stop the batch, not be counted.
+            failed.incrementAndGet();
+            System.out.println("  FAIL " + image.getName() + ": " + e);
+        }
+    }
+
+    // Virtual threads when available (Java 21+), looked up by reflection so this still compiles and runs on Java 17.
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(); // The semaphore already limits how many threads are busy.
+        }
+    }
+
+    // Only the formats ImageIO can actually read.
+    private static boolean isImage(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && READABLE_SUFFIXES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+}
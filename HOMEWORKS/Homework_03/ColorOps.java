@@ -0,0 +1,104 @@
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
+
+// Ready-made per-pixel color operations on packed 0xRRGGBB colors, for CompressedImage.map and CompressedImage.combine
+// (which apply them to the runs instead of the pixels). Each one only looks at the color(s) it gets, never at the
+// neighbours, so applying it once per run gives exactly the same image as applying it to every pixel.
+public class ColorOps {
+    private ColorOps() {
+    }
+
+    // 255 - value in every channel (a photo negative).
+    public static IntUnaryOperator invert() {
+        return rgb -> ~rgb & 0xFFFFFF;
+    }
+
+    // Gray with the brightness (luma) of the color, using the usual Rec. 601 weights.
+    public static IntUnaryOperator grayscale() {
+        return rgb -> {
+            int luma = luma(rgb);
+            return Pixel.pack(luma, luma, luma);
+        };
+    }
+
+    // Stretch every channel away from (contrast > 1) or towards (contrast < 1) the middle gray, then add 'brightness'.
+    // Results are clamped to 0..255.
+    public static IntUnaryOperator brightnessContrast(int brightness, double contrast) {
+        int[] table = new int[256]; // The same 256 answers for every channel, so they are computed once.
+        for (int value = 0; value < 256; value++) {
+            table[value] = clamp((int) Math.round((value - 128) * contrast + 128 + brightness));
+        }
+        return rgb -> Pixel.pack(table[Pixel.redOf(rgb)], table[Pixel.greenOf(rgb)], table[Pixel.blueOf(rgb)]);
+    }
+
+    // White if the luma of the color is at least 'level', black otherwise.
+    public static IntUnaryOperator threshold(int level) {
+        return rgb -> luma(rgb) >= level ? 0xFFFFFF : 0x000000;
+    }
+
+    // Rearrange the channels: the new red is the old channel number 'redFrom' (0 = red, 1 = green, 2 = blue), and so on.
+    // swapChannels(2, 1, 0) swaps red and blue.
+    public static IntUnaryOperator swapChannels(int redFrom, int greenFrom, int blueFrom) {
+        int redShift = shiftOf(redFrom);
+        int greenShift = shiftOf(greenFrom);
+        int blueShift = shiftOf(blueFrom);
+        return rgb -> Pixel.pack(rgb >> redShift, rgb >> greenShift, rgb >> blueShift);
+    }
+
+    // ---- Operations on two colors (for CompressedImage.combine) ----
+
+    // alpha * first + (1 - alpha) * second in every channel, alpha from 0 to 1.
+    public static IntBinaryOperator blend(double alpha) {
+        if (alpha < 0 || alpha > 1) {
+            throw new IllegalArgumentException("The blend factor must be between 0 and 1, not " + alpha + ".");
+        }
+        int weight = (int) Math.round(alpha * 256); // Fixed point: 256 = 1.
+        return (first, second) -> Pixel.pack(
+            mix(Pixel.redOf(first), Pixel.redOf(second), weight),
+            mix(Pixel.greenOf(first), Pixel.greenOf(second), weight),
+            mix(Pixel.blueOf(first), Pixel.blueOf(second), weight));
+    }
+
+    // The smaller value of every channel (darken).
+    public static IntBinaryOperator min() {
+        return (first, second) -> Pixel.pack(
+            Math.min(Pixel.redOf(first), Pixel.redOf(second)),
+            Math.min(Pixel.greenOf(first), Pixel.greenOf(second)),
+            Math.min(Pixel.blueOf(first), Pixel.blueOf(second)));
+    }
+
+    // The bigger value of every channel (lighten).
+    public static IntBinaryOperator max() {
+        return (first, second) -> Pixel.pack(
+            Math.max(Pixel.redOf(first), Pixel.redOf(second)),
+            Math.max(Pixel.greenOf(first), Pixel.greenOf(second)),
+            Math.max(Pixel.blueOf(first), Pixel.blueOf(second)));
+    }
+
+    // |first - second| in every channel: black exactly where the two images are identical.
+    public static IntBinaryOperator difference() {
+        return (first, second) -> first == second ? 0 : Pixel.pack(
+            Math.abs(Pixel.redOf(first) - Pixel.redOf(second)),
+            Math.abs(Pixel.greenOf(first) - Pixel.greenOf(second)),
+            Math.abs(Pixel.blueOf(first) - Pixel.blueOf(second)));
+    }
+
+    private static int mix(int first, int second, int weight) {
+        return (first * weight + second * (256 - weight) + 128) >> 8;
+    }
+
+    private static int shiftOf(int channel) {
+        if (channel < 0 || channel > 2) {
+            throw new IllegalArgumentException("A channel must be 0 (red), 1 (green) or 2 (blue), not " + channel + ".");
+        }
+        return 16 - 8 * channel;
+    }
+
+    static int luma(int rgb) {
+        return (299 * Pixel.redOf(rgb) + 587 * Pixel.greenOf(rgb) + 114 * Pixel.blueOf(rgb) + 500) / 1000;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -1,24 +1,23 @@
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntUnaryOperator;
 
 public class CompressedImage {
-    // Private inner class to represent a single unit of compressed data (Run-Length Encoding Node).
-    // The RLENode encapsulates the color and the number of times it repeats to later save them in an array.
-    private class RLENode {
-        Pixel pixel; // The pixel object containing the RGB color.
-        int runLength; // The number of times this specific pixel repeats consecutively.
-
-        public RLENode(Pixel pixel, int runLength) { // Constructor to initialize the RLE node.
-            this.pixel = pixel;
-            this.runLength = runLength;
-        }
-    }
-
-    // To save memory, a list to store the sequence of compressed nodes called "compressedPixels" is a good idea. 
+    // To save memory, the sequence of compressed runs is stored in "compressedPixels". 
     // Originally, I used a 4D array to save the RGB values and the runLength (a dimension for each one), 
     // but that wouldn't allow the list to grow as needed and it would certainly crash the second it's executed.
-    private ArrayList<RLENode> compressedPixels; 
+    // After that it was an ArrayList of RLENode objects (each one pointing to a Pixel object), which on noisy images used
+    // more memory than the raw image. Now RunList keeps the colors and the run lengths in two growing int arrays.
+    private RunList compressedPixels; 
     private int originalWidth; // To keep track of the original width of the image for later decompression.
     private int originalHeight; // To keep track of the original height of the image for later decompression.
 
@@ -27,13 +26,74 @@ public class CompressedImage {
     // Higher tolerance = more compression but more quality loss. Lower tolerance = less compression but better quality.
     private int colorTolerance;
 
+    // Index used to read single pixels without decompressing (see RunIndex). It is built the first time it is needed
+    // and thrown away whenever the runs change.
+    private RunIndex runIndex;
+
+    // The predictive filter used on every row (see RowFilter), or null if the runs hold plain colors. When it is set,
+    // the runs hold residuals, so they only make sense when the filters are undone row by row (decompress does it).
+    private byte[] rowFilters;
+
+    // Whether progress messages (like "Decompression complete!") are printed. Benchmarks and batch jobs turn this off.
+    private boolean verbose = true;
+    private CompressionStats stats; // Collected by analyze while encoding; built from the runs when asked otherwise.
+
     public CompressedImage(int tolerance) { // Constructor to initialize the CompressedImage object.
-        this.compressedPixels = new ArrayList<>(); // Initialize the list to avoid NullPointerException when adding data later.
+        this.compressedPixels = new RunList(); // Initialize the run list to avoid NullPointerException when adding data later.
         this.colorTolerance = tolerance; // Set the tolerance for lossy compression.
     }
 
+    // Constructor used when the runs already exist (for example, when they are read back from an .rle file).
+    CompressedImage(int tolerance, int width, int height, RunList runs) {
+        this(tolerance, width, height, runs, null);
+    }
+
+    CompressedImage(int tolerance, int width, int height, RunList runs, byte[] rowFilters) {
+        this.compressedPixels = runs;
+        this.colorTolerance = tolerance;
+        this.originalWidth = width;
+        this.originalHeight = height;
+        this.rowFilters = rowFilters;
+    }
+
+    // Getters for the compressed data, so other tools (like the .rle writer) can read it.
+    public int getWidth() {
+        return originalWidth;
+    }
+
+    public int getHeight() {
+        return originalHeight;
+    }
+
+    public int getColorTolerance() {
+        return colorTolerance;
+    }
+
+    public RunList getRuns() {
+        return compressedPixels;
+    }
+
+    public boolean isFiltered() { // True if the runs hold filter residuals (see analyzeFiltered).
+        return rowFilters != null;
+    }
+
+    public byte[] getRowFilters() { // A copy of the filter of every row, or null.
+        return rowFilters == null ? null : rowFilters.clone();
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
     // Main method to execute the algorithm to compress and decompress the image. This is where the program will start when run.
+    // Batch mode: "java CompressedImage <inputFolder> <outputFolder> [tolerance] [maxConcurrent]" compresses a whole folder
+    // of images into .rle files (see BatchCompressor). Without arguments, the single test.jpg demo runs as always.
     public static void main(String[] args) {
+        if (args.length >= 2) {
+            runBatch(args);
+            return;
+        }
+
         // We print the current location to know exactly where Java is "standing".
         System.out.println("\nJava is executing from: " + System.getProperty("user.dir"));
 
@@ -69,10 +129,15 @@ public class CompressedImage {
             // Show compression statistics to prove the algorithm actually worked.
             compressor.printCompressionStats(original);
             
+            // Persist the compressed data in our binary .rle format, so the compression is real and not only in memory.
+            File compressedFile = new File(outputFolder, "result.rle");
+            compressor.saveCompressed(compressedFile.getAbsolutePath());
+            System.out.println("Compressed file saved to: " + compressedFile.getAbsolutePath() + " (" + compressedFile.length() + " bytes)");
+            
             System.out.println("\nTHE ALGORITHM IS NOW IN DECOMPRESSION PROCESS:");
             
-            // Decompress to verify the result.
-            CustomImage decompressed = compressor.decompress();
+            // Decompress to verify the result. The image is rebuilt from the .rle file, which proves the file has everything we need.
+            CustomImage decompressed = loadCompressed(compressedFile.getAbsolutePath());
             
             // Verify that the decompressed image matches the original.
             compressor.verifyDecompression(original, decompressed);
@@ -82,6 +147,12 @@ public class CompressedImage {
             decompressed.saveToFile(outputPath); 
             System.out.println("Decompressed image saved to: " + outputPath);
 
+            // With -Drle.instrumentation=true, show where the time went (see Instrumentation).
+            if (Instrumentation.isEnabled()) {
+                System.out.println("\n--- TIME PER STAGE ---");
+                System.out.print(Instrumentation.report());
+            }
+
         } catch (IOException e) { 
             // We catch the error and print its message to help with debugging.
             System.out.println("Error: " + e.getMessage());
@@ -89,6 +160,23 @@ public class CompressedImage {
         }
     }
 
+    // Parse the batch mode arguments and run the batch.
+    private static void runBatch(String[] args) {
+        try {
+            int tolerance = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+            int maxConcurrent = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            new BatchCompressor(tolerance, maxConcurrent).run(new File(args[0]), new File(args[1]));
+        } catch (NumberFormatException e) {
+            System.out.println("Error: tolerance and maxConcurrent must be whole numbers (" + e.getMessage() + ").");
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Error: the batch was interrupted.");
+        }
+    }
+
     // Helper method to find the test.jpg image file starting from the current working directory.
     // This method searches for the file in common project structures without hardcoding paths.
     private static File findImageFile() {
@@ -135,48 +223,184 @@ public class CompressedImage {
     // Here is the code that will analyze every single pixel of the uploaded image and determine the RGB values to build the RLE sequences.
     // To be able to work, this method receives a CustomImage object to start the compression process.
     public void analyze(CustomImage uploadedImage) { 
+        Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.ANALYZE); // Timing (see Instrumentation).
         this.originalWidth = uploadedImage.getWidth(); // Save the original width of the image for later use in decompression.
         this.originalHeight = uploadedImage.getHeight(); // Save the original height of the image for later use in decompression.
 
-        Pixel earlierPixel = null; // Variable to keep track of the pixel currently being counted (the "active" pixel in the RLE sequence).
-        int actualStreak = 0; // Variable to count the number of repetitions of the same pixel (initialized to 0).
-
-        // Loop through each row of the uploadedImage (starts from 0 and goes down to height-1).
-        for (int coordY = 0; coordY < uploadedImage.getHeight(); coordY++) { 
-            // Loop through each column of the uploadedImage (starts from 0 and goes across to width-1).
-            for (int coordX = 0; coordX < uploadedImage.getWidth(); coordX++) { 
-                
-                Pixel currentPixel = uploadedImage.getPixel(coordY, coordX); // Get the Pixel object at the current coordinates using the getter method.
-
-                // At the start of the image analysis, there is no earlierPixel to compare with.
-                if (earlierPixel == null) { // If earlierPixel is null it means we are at the very first pixel of the image.
-                    earlierPixel = currentPixel; // Set earlierPixel to the currentPixel to have something to start the first sequence.
-                    actualStreak = 1; // Start the counter of repeated pixels at 1.
-                    continue; // Skip the rest of the loop and move to the next pixel, there is nothing to compare yet.
-                }
+        // The image is stored row after row in one array, so reading it left to right, top to bottom is a single pass
+        // of the RLE state machine (RunEncoder) over the packed 0xRRGGBB store, no Pixel objects involved.
+        int[] data = uploadedImage.getPackedPixels();
+        compressedPixels = new RunList(); // Always a fresh list: runs of an earlier analyze (or palette/filtered runs) must not be extended.
+        rowFilters = null;
+        RunEncoder encoder = new RunEncoder(colorTolerance);
+        CompressionStats collected = new CompressionStats(originalWidth, originalHeight, RLEFileWriter.RUN_RECORD_SIZE);
+        encoder.setStats(collected); // The statistics are counted as the sequences are closed, no extra pass.
+        encoder.encode(data, 0, data.length, compressedPixels);
+        encoder.finish(compressedPixels); // Save the last sequence to the list.
+        compressedPixels.trimToSize(); // Encoding is done, give back the spare capacity of the arrays.
+        runIndex = null; // The runs changed, so an old index would be wrong.
+        stats = collected;
+        Instrumentation.end(span, data.length, compressedPixels.size(), 0);
+    }
 
-                // As long as the analyze method is not on the first nor last pixel, it has to compare the current pixel with the one it is currently tracking.
-                boolean arePixelsEqual = comparePixels(currentPixel, earlierPixel); // Use the helper method below to check if both RGB values match.
-
-                if (arePixelsEqual) { 
-                    // If the current pixel is the same as the previous one (earlierPixel),
-                    actualStreak++; // Increase the streak (repetition) count by 1 (the sequence still continues).
-                } else { 
-                    // If the pixels are different, the sequence (streak) is broken. So two things need to be done:
-                    // 1. Save the sequence (before it was broken) in the array list defined early.
-                    compressedPixels.add(new RLENode(earlierPixel, actualStreak)); 
-                    
-                    // 2. Reset and create a NEW sequence. New color and reset the count to 1 again.
-                    earlierPixel = currentPixel; // Update earlierPixel to the new current color.
-                    actualStreak = 1; // Reset repetition count to 1 for the new pixel sequence.
+    // Palette mode of analyze: the image is reduced to a palette of at most maxColors (up to 256) colors (see Palette)
+    // and every run stores a 1-byte palette index instead of the full color, so a run costs 5 bytes instead of 8 in
+    // memory and 5 instead of 7 in the .rle file. If the image has no more than maxColors distinct colors the palette is
+    // exact, so with a tolerance of 0 the compression is still LOSSLESS; otherwise the colors are quantized (median cut).
+    // The tolerance works like in analyze: a run continues while the palette color of the pixel is similar to the one
+    // that started the run.
+    public void analyzePalette(CustomImage uploadedImage) {
+        analyzePalette(uploadedImage, RunList.MAX_PALETTE_SIZE);
+    }
+
+    public void analyzePalette(CustomImage uploadedImage, int maxColors) {
+        this.originalWidth = uploadedImage.getWidth();
+        this.originalHeight = uploadedImage.getHeight();
+        int[] data = uploadedImage.getPackedPixels();
+        Palette palette = Palette.build(data, maxColors);
+        int[] colors = palette.getColors();
+        int paletteSize = colors.length;
+
+        // Which palette colors are similar to which, computed once (at most 256 x 256 comparisons) instead of per pixel.
+        boolean[] similar = new boolean[paletteSize * paletteSize];
+        for (int a = 0; a < paletteSize; a++) {
+            for (int b = 0; b < paletteSize; b++) {
+                similar[a * paletteSize + b] = RunEncoder.similar(colors[a], colors[b], colorTolerance);
+            }
+        }
+
+        RunList runs = RunList.indexed(colors, 64);
+        int anchor = -1; // Palette index that started the active sequence.
+        int actualStreak = 0;
+        int previousColor = -1; // Neighbour pixels are often identical, so the last lookup is remembered.
+        int previousIndex = -1;
+        for (int rgb : data) {
+            int index = rgb == previousColor ? previousIndex : palette.indexOf(rgb);
+            previousColor = rgb;
+            previousIndex = index;
+            if (actualStreak > 0 && similar[anchor * paletteSize + index]) {
+                actualStreak++;
+            } else {
+                if (actualStreak > 0) {
+                    runs.addIndexed(anchor, actualStreak);
                 }
+                anchor = index;
+                actualStreak = 1;
+            }
+        }
+        if (actualStreak > 0) {
+            runs.addIndexed(anchor, actualStreak);
+        }
+        runs.trimToSize();
+        this.compressedPixels = runs;
+        this.rowFilters = null;
+        this.runIndex = null;
+        this.stats = null;
+    }
+
+    // Analyze with a predictive filter before RLE (see RowFilter): every row is predicted from the row above and the
+    // pixel on the left with the filter (None, Sub, Up, Average or Paeth) that looks best for that row, and the runs
+    // store what the prediction got wrong. Gradients and patterns that repeat from row to row, which plain RLE can't
+    // see, become long runs of the same residual. The tolerance still bounds the error of every pixel.
+    // COST: the filter of every row is chosen by encoding the row with all five filters (see RowFilter.chooseFilter),
+    // so this is about 6-7x slower than analyze (2-7.5x measured on the test photos). Use it when the file size
+    // matters more than the encoding time; decoding is not slower.
+    // A filtered image can be decompressed (decompress, decompressParallel, saveCompressed + loadCompressed), but
+    // getRGB and decompressRegion need plain colors and throw IllegalStateException.
+    public void analyzeFiltered(CustomImage uploadedImage) {
+        this.originalWidth = uploadedImage.getWidth();
+        this.originalHeight = uploadedImage.getHeight();
+        byte[] filters = new byte[originalHeight];
+        this.compressedPixels = RowFilter.encode(uploadedImage.getPackedPixels(), originalWidth, originalHeight, colorTolerance, filters);
+        this.rowFilters = filters;
+        this.runIndex = null;
+        this.stats = null;
+    }
+
+    // Compress with the smallest tolerance whose .rle file (see saveCompressed) is at most maxFileBytes bytes, so the
+    // tolerance comes from a size budget instead of being a magic number. The tolerance is found by ToleranceSearch
+    // (one histogram pass and a few run-counting passes), then the image is analyzed once with it.
+    public static CompressedImage compressToSize(CustomImage image, long maxFileBytes) {
+        long maxRuns = (maxFileBytes - RLEFileWriter.HEADER_SIZE) / RLEFileWriter.RUN_RECORD_SIZE;
+        if (maxFileBytes < RLEFileWriter.fileSize(1)) {
+            throw new IllegalArgumentException("A budget of " + maxFileBytes + " bytes is smaller than the smallest .rle file (" + RLEFileWriter.fileSize(1) + " bytes).");
+        }
+        CompressedImage compressor = new CompressedImage(ToleranceSearch.findTolerance(image.getPackedPixels(), maxRuns));
+        compressor.analyze(image);
+        return compressor;
+    }
+
+    // Same, with a target compression ratio: uncompressed size (3 bytes per pixel) / .rle file size, e.g. 10 for 10:1.
+    public static CompressedImage compressToRatio(CustomImage image, double ratio) {
+        if (!(ratio > 0)) {
+            throw new IllegalArgumentException("The compression ratio must be positive, not " + ratio + ".");
+        }
+        long uncompressedSize = (long) image.getWidth() * image.getHeight() * 3L;
+        return compressToSize(image, (long) (uncompressedSize / ratio));
+    }
+
+    // Multi-threaded version of analyze: the image is encoded in bands on the common ForkJoinPool and the bands are
+    // stitched so the runs are exactly the same as the single-threaded analyze (see ParallelRunEncoder).
+    public void analyzeParallel(CustomImage uploadedImage) {
+        analyzeParallel(uploadedImage, ForkJoinPool.commonPool());
+    }
+
+    public void analyzeParallel(CustomImage uploadedImage, ForkJoinPool pool) {
+        this.originalWidth = uploadedImage.getWidth();
+        this.originalHeight = uploadedImage.getHeight();
+        this.compressedPixels = ParallelRunEncoder.encode(uploadedImage.getPackedPixels(), originalWidth, originalHeight, colorTolerance, pool);
+        this.rowFilters = null;
+        this.runIndex = null;
+        this.stats = null;
+    }
+
+    // Compress an image file without ever loading it completely: the file is read in strips of 'stripHeight' rows
+    // (see StripReader) and every strip is fed to the same RLE state machine, which carries the open sequence from one
+    // strip to the next. The result is identical to fromFile + analyze, but the peak memory is one strip plus the runs.
+    public void analyzeFile(String filePath, int stripHeight) throws IOException {
+        try (StripReader strips = new StripReader(filePath, stripHeight)) {
+            this.originalWidth = strips.getWidth();
+            this.originalHeight = strips.getHeight();
+            int[] buffer = new int[strips.getWidth() * stripHeight];
+            compressedPixels = new RunList(); // Always a fresh list, like analyze.
+            rowFilters = null;
+            RunEncoder encoder = new RunEncoder(colorTolerance);
+            CompressionStats collected = new CompressionStats(originalWidth, originalHeight, RLEFileWriter.RUN_RECORD_SIZE);
+            encoder.setStats(collected);
+            int rows;
+            while ((rows = strips.readStrip(buffer)) > 0) {
+                encoder.encode(buffer, 0, rows * strips.getWidth(), compressedPixels);
             }
+            encoder.finish(compressedPixels);
+            compressedPixels.trimToSize();
+            runIndex = null;
+            stats = collected;
         }
+    }
 
-        // After the loops finish, the last sequence is still in memory but hasn't been added to the list yet because there is nothing
-        // to compare with the last pixel if the next one is out of bounds (I hate that error).
-        if (earlierPixel != null) { // So, if earlierPixel isn't null, it means we need to save the last sequence. 
-            compressedPixels.add(new RLENode(earlierPixel, actualStreak)); // Save the last sequence to the list.
+    // Compress an image file straight into an .rle file. Here even the runs are not kept: after every strip, the runs it
+    // closed are written and forgotten, so memory is bounded by the strip height no matter how big the image is.
+    // The run count is unknown while streaming, so the writer patches it into the header when it is closed.
+    public static void compressFileToRLE(String inputPath, String outputPath, int tolerance, int stripHeight) throws IOException {
+        File outputFile = new File(outputPath);
+        File parentDir = outputFile.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        try (StripReader strips = new StripReader(inputPath, stripHeight);
+             RLEFileWriter writer = new RLEFileWriter(FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            writer.writeHeader(strips.getWidth(), strips.getHeight(), tolerance, RLEFileWriter.UNKNOWN_RUN_COUNT);
+            int[] buffer = new int[strips.getWidth() * stripHeight];
+            RunList stripRuns = new RunList(); // Reused for every strip.
+            RunEncoder encoder = new RunEncoder(tolerance);
+            int rows;
+            while ((rows = strips.readStrip(buffer)) > 0) {
+                encoder.encode(buffer, 0, rows * strips.getWidth(), stripRuns);
+                writer.writeRuns(stripRuns);
+                stripRuns.clear();
+            }
+            encoder.finish(stripRuns);
+            writer.writeRuns(stripRuns);
         }
     }
 
@@ -199,11 +423,12 @@ public class CompressedImage {
         
         // Calculate how much memory would be needed without compression.
         // Each pixel needs 3 bytes (one for Red, one for Green, one for Blue).
-        int uncompressedSize = totalPixels * 3; // In bytes
+        long uncompressedSize = totalPixels * 3L; // In bytes (long, so huge images don't overflow)
         
-        // Calculate how much memory the compressed version needs.
-        // Each RLE node stores: 3 bytes for RGB + 4 bytes for the integer count = 7 bytes per node.
-        int compressedSize = compressedPixels.size() * 7; // In bytes
+        // Calculate how much memory the compressed version really uses on the heap.
+        // This is measured from the run arrays themselves (4 bytes of color + 4 bytes of length per run, plus the array
+        // headers), instead of the old "7 bytes per node" guess that ignored the objects behind every node.
+        long compressedSize = compressedPixels.footprintBytes(); // In bytes
         
         // Calculate the compression ratio (how much smaller the compressed version is).
         double compressionRatio = (double) uncompressedSize / compressedSize;
@@ -211,191 +436,487 @@ public class CompressedImage {
         // Calculate the space saved as a percentage.
         double spaceSaved = ((double)(uncompressedSize - compressedSize) / uncompressedSize) * 100;
         
-        // Print the statistics in a clear, organized format.
-        System.out.println("\n--- COMPRESSION STATISTICS ---");
-        System.out.println("Compression mode: " + (colorTolerance == 0 ? "LOSSLESS (exact match)" : "LOSSY (tolerance = " + colorTolerance + ")"));
-        System.out.println("Image dimensions: " + originalImage.getWidth() + " x " + originalImage.getHeight() + " pixels");
-        System.out.println("Total pixels in image: " + totalPixels);
-        System.out.println("Total RLE sequences created: " + compressedPixels.size());
-        System.out.println("\nMemory usage comparison:");
-        System.out.println("  Uncompressed size: " + uncompressedSize + " bytes (" + (uncompressedSize / 1024.0) + " KB)");
-        System.out.println("  Compressed size: " + compressedSize + " bytes (" + (compressedSize / 1024.0) + " KB)");
-        System.out.println("  Compression ratio: " + String.format("%.2f", compressionRatio) + ":1");
-        System.out.println("  Space saved: " + String.format("%.2f", spaceSaved) + "%\n");
-        
+        CompressionStats runStats = getStats(); // Longest run, mean, histogram... all collected while encoding.
+
+        // Build the whole report in one StringBuilder and print it once.
+        StringBuilder report = new StringBuilder(2048);
+        report.append("\n--- COMPRESSION STATISTICS ---\n");
+        report.append("Compression mode: ").append(colorTolerance == 0 ? "LOSSLESS (exact match)" : "LOSSY (tolerance = " + colorTolerance + ")").append('\n');
+        report.append(String.format("Image dimensions: %d x %d pixels%n", originalImage.getWidth(), originalImage.getHeight()));
+        report.append("Total pixels in image: ").append(totalPixels).append('\n');
+        report.append("Total RLE sequences created: ").append(compressedPixels.size()).append('\n');
+        if (rowFilters != null) {
+            report.append("Predictive filters: on (1 filter byte per row, sequences store residuals)\n");
+        }
+        if (compressedPixels.isIndexed()) {
+            report.append("Palette mode: ").append(compressedPixels.getPalette().length).append(" colors, 1-byte index per sequence\n");
+        }
+        report.append("\nMemory usage comparison:\n");
+        report.append(String.format("  Uncompressed size: %d bytes (%.1f KB)%n", uncompressedSize, uncompressedSize / 1024.0));
+        report.append(String.format("  Compressed size: %d bytes (%.1f KB)%n", compressedSize, compressedSize / 1024.0));
+        report.append(String.format("  Compression ratio: %.2f:1%n", compressionRatio));
+        report.append(String.format("  Space saved: %.2f%%%n%n", spaceSaved));
+
         // Now let's print some sample sequences to prove we're actually storing color runs.
-        System.out.println("\n--- SAMPLE RLE SEQUENCES (First 10) ---");
-        System.out.println("Format: RGB(red, green, blue) x count");
-        
-        // Print the first 10 sequences (or fewer if there aren't 10).
-        int samplesToShow = Math.min(10, compressedPixels.size());
+        report.append("\n--- SAMPLE RLE SEQUENCES (First 10) ---\n");
+        report.append("Format: RGB(red, green, blue) x count\n");
+        int samplesToShow = Math.min(10, compressedPixels.size()); // The first 10 sequences (or fewer if there aren't 10).
         for (int i = 0; i < samplesToShow; i++) {
-            RLENode node = compressedPixels.get(i);
-            System.out.println("Sequence " + (i + 1) + ": RGB(" + 
-                node.pixel.getRed() + ", " + 
-                node.pixel.getGreen() + ", " + 
-                node.pixel.getBlue() + ") x " + node.runLength + " times");
+            int color = compressedPixels.getColor(i);
+            report.append(String.format("Sequence %d: RGB(%d, %d, %d) x %d times%n", i + 1,
+                Pixel.redOf(color), Pixel.greenOf(color), Pixel.blueOf(color), compressedPixels.getLength(i)));
         }
-        
-        // If there are more sequences, indicate that.
-        if (compressedPixels.size() > 10) {
-            System.out.println("... and " + (compressedPixels.size() - 10) + " more sequences\n");
+        if (compressedPixels.size() > 10) { // If there are more sequences, indicate that.
+            report.append("... and ").append(compressedPixels.size() - 10).append(" more sequences\n\n");
         }
-        
-        // Print some interesting statistics about the sequences.
-        System.out.println("\n--- SEQUENCE ANALYSIS ---");
-        
-        // Find the longest run (the color that repeated the most times in a row).
-        int longestRun = 0;
-        Pixel longestRunPixel = null;
-        for (RLENode node : compressedPixels) {
-            if (node.runLength > longestRun) {
-                longestRun = node.runLength;
-                longestRunPixel = node.pixel;
+
+        // Some interesting statistics about the sequences.
+        report.append("\n--- SEQUENCE ANALYSIS ---\n");
+        int longestRunColor = runStats.getLongestRunColor(); // The color that repeated the most times in a row.
+        report.append(String.format("%nLongest sequence: RGB(%d, %d, %d) repeated %d times in a row%n",
+            Pixel.redOf(longestRunColor), Pixel.greenOf(longestRunColor), Pixel.blueOf(longestRunColor), runStats.getLongestRun()));
+        report.append(String.format("Average sequence length: %.2f pixels%n", runStats.getMeanRunLength()));
+        report.append(String.format("Different colors (estimated): %d%n", runStats.getEstimatedColorCount()));
+        report.append(String.format("Sequences per row: %.1f on average, %d at most (%d bytes in the .rle file)%n",
+            runStats.getMeanRunsPerRow(), runStats.getMaxRunsPerRow(), runStats.getMaxBytesPerRow()));
+        report.append("Sequence lengths:\n");
+        for (int bucket = 0; bucket < 32; bucket++) {
+            long runs = runStats.getRunsInBucket(bucket);
+            if (runs > 0) {
+                report.append(String.format("  %10d - %-10d %10d sequences%n", 1L << bucket, (1L << (bucket + 1)) - 1, runs));
             }
         }
-        
-        System.out.println("\nLongest sequence: RGB(" + 
-            longestRunPixel.getRed() + ", " + 
-            longestRunPixel.getGreen() + ", " + 
-            longestRunPixel.getBlue() + ") repeated " + longestRun + " times in a row");
-        
-        // Calculate the average run length.
-        double averageRunLength = (double) totalPixels / compressedPixels.size();
-        System.out.println("Average sequence length: " + String.format("%.2f", averageRunLength) + " pixels\n");
-        
+        System.out.println(report);
     }
 
-    // To make the comparison of pixels more organized and reusable, I created a private helper method (comparePixels) 
-    // that takes two Pixel objects as parameters, compares their RGB values, and returns true/false if they are "similar enough".
-    // 
-    // LOSSY COMPRESSION LOGIC:
-    // Instead of requiring exact matches (255,0,0) == (255,0,0), we now allow similar colors to be treated as the same.
-    // For example, with tolerance=20: RGB(255,0,0) and RGB(251,3,0) are considered the same color.
-    // This creates longer sequences, resulting in better compression, at the cost of some image quality.
-    private boolean comparePixels(Pixel p1, Pixel p2) {
-        if (p1 == null || p2 == null) { // Safety check: If either pixel is null, they cannot be equal.
-            return false; 
-        }
-        
-        // If tolerance is 0, use exact matching (lossless compression).
-        if (colorTolerance == 0) {
-            return p1.getRed() == p2.getRed() && 
-                   p1.getGreen() == p2.getGreen() && 
-                   p1.getBlue() == p2.getBlue();
+    // Statistics of the runs (see CompressionStats). analyze and analyzeFile collect them while they encode; for runs
+    // made any other way they are computed here, once, in one pass over the runs.
+    public CompressionStats getStats() {
+        if (stats == null) {
+            int recordSize = compressedPixels.isIndexed() ? RLEFileWriter.PALETTE_RUN_RECORD_SIZE : RLEFileWriter.RUN_RECORD_SIZE;
+            stats = CompressionStats.of(compressedPixels, originalWidth, originalHeight, recordSize);
         }
-        
-        // For lossy compression, calculate the absolute difference for each color channel.
-        // If ALL three channels are within the tolerance, consider the pixels "similar enough".
-        int redDifference = Math.abs(p1.getRed() - p2.getRed());
-        int greenDifference = Math.abs(p1.getGreen() - p2.getGreen());
-        int blueDifference = Math.abs(p1.getBlue() - p2.getBlue());
-        
-        // Return true only if ALL color channels are within tolerance.
-        // Example with tolerance=20: RGB(255,0,0) vs RGB(240,15,10)
-        // Red: 255-240 = 15 GOOD (within 20)
-        // Green: 0-15 = 15 GOOD (within 20)
-        // Blue: 0-10 = 10 GOOD (within 20)
-        // Result: true (they're similar enough)
-        return redDifference <= colorTolerance && 
-               greenDifference <= colorTolerance && 
-               blueDifference <= colorTolerance;
+        return stats;
     }
 
     // This method reconstructs the image from the compressed RLE data.
     // It returns a CustomImage object that should look identical to the original.
     public CustomImage decompress() {
+        Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.DECOMPRESS);
         // First step: Create a blank image using the stored dimensions.
-        CustomImage restoredImage = new CustomImage(originalWidth, originalHeight);
-        restoredImage.initializePixels(); // Initialize all pixels to avoid null errors.
+        CustomImage restoredImage = new CustomImage(originalWidth, originalHeight); // A new image is already all black.
+        int[] data = restoredImage.getPackedPixels(); // Paint straight into the packed store of the restored image.
         
-        // Variables to track our position while painting in the 2D matrix.
-        int currentX = 0;
-        int currentY = 0;
+        // Because the store is one row-major array, our position is a single index and a sequence that wraps to the next
+        // line is still one contiguous block of the array.
+        int position = 0;
+        int unfilteredRows = 0; // For filtered images: rows that are already turned from residuals back into pixels.
 
         // Now, iterate through the compressedPixels list to reconstruct the image based on the RLE data.
-        for (RLENode node : compressedPixels) { // For each RLE node in the compressed data,
-            // For each node, paint the pixel 'runLength' times.
-            for (int i = 0; i < node.runLength; i++) { 
-                // Set the pixel in the restored image using the setters of the CustomImage class.
-                restoredImage.setPixel(currentY, currentX, node.pixel);
-                
-                // Then move to the next pixel position in the restored image.
-                currentX++; // Move to the next column.
-                
-                // If we reach the end of a row, wrap to the next line.
-                if (currentX >= originalWidth) {
-                    currentX = 0;
-                    currentY++;
-                }
+        for (int i = 0; i < compressedPixels.size(); i++) { // For each run in the compressed data,
+            // Paint the color 'runLength' times with one bulk fill (never past the end of the image).
+            int end = Math.min(position + compressedPixels.getLength(i), data.length);
+            Arrays.fill(data, position, end, compressedPixels.getColor(i));
+            position = end; // Then move to the next pixel position in the restored image.
+            if (rowFilters != null) { // Undo the filter of every row this run completed, in the same pass.
+                unfilteredRows = RowFilter.unfilterRows(data, 0, originalWidth, originalHeight, rowFilters, unfilteredRows, position);
             }
         }
         
-        System.out.println("\nDecompression complete! Image reconstructed successfully.");
+        if (verbose) {
+            System.out.println("\nDecompression complete! Image reconstructed successfully.");
+        }
+        Instrumentation.end(span, data.length, compressedPixels.size(), 0);
         
         return restoredImage; // Return the fully restored image.
     }
     
+    // Read the packed color of ONE pixel straight from the compressed runs, without decompressing the image.
+    // Uses the same (coordY, coordX) order as CustomImage.getRGB. Costs O(log runs) and allocates nothing.
+    public int getRGB(int coordY, int coordX) {
+        requireUnfiltered("getRGB");
+        if (coordY < 0 || coordY >= originalHeight || coordX < 0 || coordX >= originalWidth) {
+            throw new IndexOutOfBoundsException("Pixel (" + coordX + ", " + coordY + ") is outside the " + originalWidth + " x " + originalHeight + " image.");
+        }
+        return compressedPixels.getColor(getRunIndex().findRun(coordY * originalWidth + coordX));
+    }
+
+    // Decompress only the rectangle that starts at (x, y) and is w x h pixels into a new image (java.awt.Rectangle order).
+    public CustomImage decompressRegion(int x, int y, int w, int h) {
+        CustomImage region = new CustomImage(w, h);
+        decompressRegion(x, y, w, h, region.getPackedPixels(), 0, w);
+        return region;
+    }
+
+    // Decompress only the rectangle (x, y, w, h) into a caller's buffer: row r of the region goes to
+    // target[offset + r * stride ...]. The run index jumps straight to the run under (x, y + r) for every row, and only
+    // the runs inside the horizontal window are painted, so the cost depends on the region, not on the whole image.
+    public void decompressRegion(int x, int y, int w, int h, int[] target, int offset, int stride) {
+        requireUnfiltered("decompressRegion");
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > originalWidth || y + h > originalHeight) {
+            throw new IllegalArgumentException("The region (" + x + ", " + y + ", " + w + ", " + h + ") is outside the " + originalWidth + " x " + originalHeight + " image.");
+        }
+        if (w == 0 || h == 0) {
+            return;
+        }
+        RunIndex index = getRunIndex();
+        for (int row = 0; row < h; row++) {
+            int firstPixel = (y + row) * originalWidth + x; // Region row in image pixel numbers: [firstPixel, firstPixel + w).
+            int run = index.findRun(y + row, firstPixel);
+            int runEnd = index.startOfRun(run) + compressedPixels.getLength(run);
+            int position = offset + row * stride;
+            int rowEnd = position + w;
+            int pixel = firstPixel;
+            while (position < rowEnd) {
+                int count = Math.min(runEnd - pixel, rowEnd - position); // Clip the run to the window.
+                Arrays.fill(target, position, position + count, compressedPixels.getColor(run));
+                position += count;
+                pixel += count;
+                run++;
+                if (run < compressedPixels.size()) {
+                    runEnd += compressedPixels.getLength(run);
+                }
+            }
+        }
+    }
+
+    // Operations that read colors straight from the runs can't work when the runs are filter residuals.
+    private void requireUnfiltered(String operation) {
+        if (rowFilters != null) {
+            throw new IllegalStateException(operation + " is not available on a filtered image (see analyzeFiltered), decompress it first.");
+        }
+    }
+
+    // Apply a per-pixel color operation (see ColorOps for ready-made ones) WITHOUT decompressing: the operation is
+    // applied once per run instead of once per pixel, and runs that end up next to each other with the same color are
+    // merged into one. The result is a new CompressedImage (this one is not changed). Costs O(runs), so on flat images
+    // it is hundreds of times faster than decompress + loop + analyze. In palette mode only the palette is transformed.
+    public CompressedImage map(IntUnaryOperator operation) {
+        requireUnfiltered("map");
+        RunList runs = compressedPixels;
+        RunList result;
+        if (runs.isIndexed()) {
+            // Transform the palette; colors that become equal share one index so their runs can merge.
+            int[] palette = runs.getPalette();
+            int[] newIndex = new int[palette.length];
+            int[] newPalette = new int[palette.length];
+            int newSize = 0;
+            for (int i = 0; i < palette.length; i++) {
+                int color = operation.applyAsInt(palette[i]) & 0xFFFFFF;
+                int found = 0;
+                while (found < newSize && newPalette[found] != color) {
+                    found++;
+                }
+                if (found == newSize) {
+                    newPalette[newSize++] = color;
+                }
+                newIndex[i] = found;
+            }
+            result = RunList.indexed(Arrays.copyOf(newPalette, newSize), Math.max(1, runs.size()));
+            int pendingIndex = -1;
+            int pendingLength = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                int index = newIndex[runs.getPaletteIndex(i)];
+                if (index == pendingIndex) {
+                    pendingLength += runs.getLength(i);
+                } else {
+                    if (pendingLength > 0) {
+                        result.addIndexed(pendingIndex, pendingLength);
+                    }
+                    pendingIndex = index;
+                    pendingLength = runs.getLength(i);
+                }
+            }
+            if (pendingLength > 0) {
+                result.addIndexed(pendingIndex, pendingLength);
+            }
+        } else {
+            result = new RunList(Math.max(1, runs.size()));
+            int lastInput = 0;
+            int lastOutput = 0;
+            boolean cached = false; // Neighbouring runs often share a color in lossy mode, so remember the last answer.
+            int pendingColor = 0;
+            int pendingLength = 0;
+            for (int i = 0; i < runs.size(); i++) {
+                int input = runs.getColor(i);
+                if (!cached || input != lastInput) {
+                    lastInput = input;
+                    lastOutput = operation.applyAsInt(input) & 0xFFFFFF;
+                    cached = true;
+                }
+                if (pendingLength > 0 && lastOutput == pendingColor) {
+                    pendingLength += runs.getLength(i); // Same color as the run before: merge them.
+                } else {
+                    if (pendingLength > 0) {
+                        result.add(pendingColor, pendingLength);
+                    }
+                    pendingColor = lastOutput;
+                    pendingLength = runs.getLength(i);
+                }
+            }
+            if (pendingLength > 0) {
+                result.add(pendingColor, pendingLength);
+            }
+        }
+        result.trimToSize();
+        return derived(result, colorTolerance);
+    }
+
+    public CompressedImage invert() {
+        return map(ColorOps.invert());
+    }
+
+    public CompressedImage grayscale() {
+        return map(ColorOps.grayscale());
+    }
+
+    public CompressedImage adjustBrightnessContrast(int brightness, double contrast) {
+        return map(ColorOps.brightnessContrast(brightness, contrast));
+    }
+
+    public CompressedImage threshold(int level) {
+        return map(ColorOps.threshold(level));
+    }
+
+    public CompressedImage swapChannels(int redFrom, int greenFrom, int blueFrom) {
+        return map(ColorOps.swapChannels(redFrom, greenFrom, blueFrom));
+    }
+
+    // Combine this image with another one of the same size, pixel by pixel: result = operation(thisColor, otherColor)
+    // (see ColorOps for blend, min, max and difference). Both run lists are walked side by side (RunMerger), so it
+    // costs O(runs of this + runs of other) and neither image is decompressed. The result keeps the bigger tolerance.
+    public CompressedImage combine(CompressedImage other, IntBinaryOperator operation) {
+        checkCompatible(other, "combine");
+        RunList result = RunMerger.combine(compressedPixels, other.compressedPixels, operation);
+        return derived(result, Math.max(colorTolerance, other.colorTolerance));
+    }
+
+    public CompressedImage blend(CompressedImage other, double alpha) { // alpha * this + (1 - alpha) * other.
+        return combine(other, ColorOps.blend(alpha));
+    }
+
+    public CompressedImage min(CompressedImage other) {
+        return combine(other, ColorOps.min());
+    }
+
+    public CompressedImage max(CompressedImage other) {
+        return combine(other, ColorOps.max());
+    }
+
+    public CompressedImage difference(CompressedImage other) { // Black where both images are identical.
+        return combine(other, ColorOps.difference());
+    }
+
+    // Mask select: where the mask is bright (luma >= 128) the pixel comes from 'overlay', everywhere else from this
+    // image. Same merge-join walk, over three run lists.
+    public CompressedImage select(CompressedImage mask, CompressedImage overlay) {
+        checkCompatible(mask, "select");
+        checkCompatible(overlay, "select");
+        RunList result = RunMerger.select(mask.compressedPixels, rgb -> ColorOps.luma(rgb) >= 128, overlay.compressedPixels, compressedPixels);
+        return derived(result, Math.max(colorTolerance, overlay.colorTolerance));
+    }
+
+    private void checkCompatible(CompressedImage other, String operation) {
+        requireUnfiltered(operation);
+        other.requireUnfiltered(operation);
+        if (other.originalWidth != originalWidth || other.originalHeight != originalHeight) {
+            throw new IllegalArgumentException("The images have different sizes: " + originalWidth + "x" + originalHeight
+                + " and " + other.originalWidth + "x" + other.originalHeight + ".");
+        }
+    }
+
+    // A new image of the same size as this one, holding 'runs'.
+    private CompressedImage derived(RunList runs, int tolerance) {
+        CompressedImage image = new CompressedImage(tolerance, originalWidth, originalHeight, runs);
+        image.verbose = verbose;
+        return image;
+    }
+
+    // A smaller copy of this image, 'factor' times narrower and shorter (2 = half size, 4 = quarter, 8 = eighth), where
+    // every pixel is the average of the block it replaces. Computed straight from the runs (see Downscaler): the full
+    // size image is never rebuilt, so making a thumbnail costs about O(runs + thumbnail pixels).
+    public CompressedImage downscale(int factor) {
+        requireUnfiltered("downscale");
+        RunList result = Downscaler.downscale(compressedPixels, originalWidth, originalHeight, factor, colorTolerance);
+        CompressedImage image = new CompressedImage(colorTolerance, Downscaler.scaledSize(originalWidth, factor), Downscaler.scaledSize(originalHeight, factor), result);
+        image.verbose = verbose;
+        return image;
+    }
+
+    // The mip pyramid: 1/2, 1/4, 1/8... of this image, down to 1 x 1. Every level is the half of the level before it
+    // (always in the compressed domain), so the whole pyramid costs less than the first level twice.
+    public List<CompressedImage> pyramid() {
+        List<CompressedImage> levels = new ArrayList<>();
+        CompressedImage level = this;
+        while (level.originalWidth > 1 || level.originalHeight > 1) {
+            level = level.downscale(2);
+            levels.add(level);
+        }
+        return levels;
+    }
+
+    // Build the run index the first time it is needed. If two threads race here, both build the same index, so no lock
+    // is needed.
+    RunIndex getRunIndex() {
+        RunIndex index = runIndex;
+        if (index == null) {
+            index = new RunIndex(compressedPixels, originalWidth, originalHeight);
+            runIndex = index;
+        }
+        return index;
+    }
+
+    // Multi-threaded version of decompress: the runs are painted in parallel ranges on the common ForkJoinPool, using a
+    // prefix sum of the run lengths to know where every run goes (see ParallelRunDecoder).
+    public CustomImage decompressParallel() {
+        return decompressParallel(ForkJoinPool.commonPool());
+    }
+
+    public CustomImage decompressParallel(ForkJoinPool pool) {
+        CustomImage restoredImage = new CustomImage(originalWidth, originalHeight);
+        ParallelRunDecoder.decode(compressedPixels, restoredImage.getPackedPixels(), pool);
+        if (rowFilters != null) { // Every row depends on the one above, so the filters are undone on one thread.
+            RowFilter.unfilterRows(restoredImage.getPackedPixels(), 0, originalWidth, originalHeight, rowFilters, 0, (long) originalWidth * originalHeight);
+        }
+        if (verbose) {
+            System.out.println("\nDecompression complete! Image reconstructed successfully.");
+        }
+        return restoredImage;
+    }
+
+    // Write the compressed image to any output stream in the binary .rle format (see RLEFileWriter for the layout).
+    // The stream is closed when writing finishes.
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(out, false);
+    }
+
+    // Same, optionally with the entropy-coded payload (Huffman-coded colors and varint lengths, see
+    // RLEFileWriter.writeEntropyCoded): smaller files, still decoded in one streaming pass by loadCompressed.
+    public void writeTo(OutputStream out, boolean entropyCoding) throws IOException {
+        try (RLEFileWriter writer = new RLEFileWriter(out)) {
+            writeRuns(writer, entropyCoding);
+        }
+    }
+
+    // Save the compressed image as an .rle file, creating the parent folders if needed (like CustomImage.saveToFile does).
+    public void saveCompressed(String outputPath) throws IOException {
+        saveCompressed(outputPath, false);
+    }
+
+    public void saveCompressed(String outputPath, boolean entropyCoding) throws IOException {
+        Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.SAVE_COMPRESSED);
+        File outputFile = new File(outputPath);
+        File parentDir = outputFile.getParentFile();
+        if (parentDir != null && !parentDir.exists()) {
+            parentDir.mkdirs();
+        }
+        FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try (RLEFileWriter writer = new RLEFileWriter(channel)) {
+            writeRuns(writer, entropyCoding);
+        }
+        if (span != null) {
+            Instrumentation.end(span, (long) originalWidth * originalHeight, compressedPixels.size(), outputFile.length());
+        }
+    }
+
+    private void writeRuns(RLEFileWriter writer, boolean entropyCoding) throws IOException {
+        if (entropyCoding) {
+            writer.writeEntropyCoded(originalWidth, originalHeight, colorTolerance, compressedPixels, rowFilters);
+        } else {
+            writer.writeHeader(originalWidth, originalHeight, colorTolerance, compressedPixels.size(), compressedPixels.getPalette(), rowFilters);
+            writer.writeRuns(compressedPixels);
+        }
+    }
+
+    // Rebuild an image straight from an .rle file. The runs are streamed from the disk into the pixels, the run list
+    // itself is never loaded.
+    public static CustomImage loadCompressed(String filePath) throws IOException {
+        Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.DECOMPRESS);
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+             RLEFileReader reader = new RLEFileReader(channel)) {
+            CustomImage image = reader.readImage();
+            if (span != null) {
+                Instrumentation.end(span, (long) image.getWidth() * image.getHeight(), Math.max(0, reader.getRunCount()), channel.size());
+            }
+            return image;
+        }
+    }
+
+    // Open an .rle file in memory-mapped mode: opening only reads the header, and the runs are decoded straight from
+    // the mapped pages of the file (see MappedRLEFile). Remember to close it.
+    public static MappedRLEFile openMapped(String filePath) throws IOException {
+        return MappedRLEFile.open(filePath);
+    }
+
+    // Read an .rle file back as a CompressedImage (the runs, not the pixels).
+    public static CompressedImage readCompressed(String filePath) throws IOException {
+        try (RLEFileReader reader = new RLEFileReader(FileChannel.open(Paths.get(filePath), StandardOpenOption.READ))) {
+            return reader.readCompressed();
+        }
+    }
+
+    // Decompress into 'restored' (a new image of the same size) and measure it against 'original' in the SAME pass:
+    // every band of rows is painted from the runs and compared right away, in parallel (see QualityMetrics), so
+    // verifying doesn't cost a second trip over the whole image. Filtered images (analyzeFiltered) have to be
+    // unfiltered row after row first, so for them it is a decompress followed by a parallel comparison.
+    public QualityMetrics decompressAndMeasure(CustomImage original, CustomImage restored) {
+        if (original.getWidth() != originalWidth || original.getHeight() != originalHeight
+            || restored.getWidth() != originalWidth || restored.getHeight() != originalHeight) {
+            throw new IllegalArgumentException("Both images must be " + originalWidth + " x " + originalHeight + " pixels.");
+        }
+        if (rowFilters != null) {
+            boolean wasVerbose = verbose;
+            verbose = false;
+            int[] decoded = decompress().getPackedPixels();
+            verbose = wasVerbose;
+            System.arraycopy(decoded, 0, restored.getPackedPixels(), 0, decoded.length);
+            return QualityMetrics.compare(original, restored, colorTolerance);
+        }
+        return QualityMetrics.decodeAndCompare(compressedPixels, original.getPackedPixels(), restored.getPackedPixels(),
+            originalWidth, originalHeight, colorTolerance, ForkJoinPool.commonPool());
+    }
+
+    // Decompress and print the verification report in one pass (the fused version of decompress + verifyDecompression).
+    public CustomImage decompressAndVerify(CustomImage original) {
+        CustomImage restored = new CustomImage(originalWidth, originalHeight);
+        QualityMetrics metrics = decompressAndMeasure(original, restored);
+        if (verbose) {
+            System.out.println("\nDecompression complete! Image reconstructed successfully.");
+        }
+        printVerification(metrics);
+        return restored;
+    }
+
     // This method verifies the quality of decompression by comparing with the original.
     // For lossy compression, it measures how different the pixels are on average.
     // For lossless compression, it checks for perfect matches.
+    // The comparison itself is done by QualityMetrics, in one parallel pass with long counters (the old int counters
+    // overflowed on big images), and it also reports PSNR and SSIM.
     public void verifyDecompression(CustomImage original, CustomImage decompressed) {
-        System.out.println("\n\nVERIFYING DECOMPRESSION ACCURACY");
-        
         // First, check if the dimensions match.
         if (original.getWidth() != decompressed.getWidth() || 
             original.getHeight() != decompressed.getHeight()) {
+            System.out.println("\n\nVERIFYING DECOMPRESSION ACCURACY");
             System.out.println("ERROR: Image dimensions don't match!");
             System.out.println("Original: " + original.getWidth() + "x" + original.getHeight());
             System.out.println("Decompressed: " + decompressed.getWidth() + "x" + decompressed.getHeight());
             return;
         }
+        Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.VERIFY);
+        QualityMetrics metrics = QualityMetrics.compare(original, decompressed, colorTolerance);
+        Instrumentation.end(span, metrics.getPixelCount(), 0, 0); // Only the comparison, not the printing.
+        printVerification(metrics);
+    }
+
+    // Print the verification report of already measured metrics.
+    private void printVerification(QualityMetrics metrics) {
+        System.out.println("\n\nVERIFYING DECOMPRESSION ACCURACY");
+        long totalPixels = metrics.getPixelCount();
+        long exactMatches = metrics.getExactMatches();
         
-        // Now compare every single pixel and track differences.
-        int totalPixels = original.getWidth() * original.getHeight();
-        int exactMatches = 0; // Pixels that match perfectly (RGB values identical)
-        int similarPixels = 0; // Pixels within tolerance but not exact
-        int totalRedDiff = 0;
-        int totalGreenDiff = 0;
-        int totalBlueDiff = 0;
-        int maxColorDifference = 0;
-        
-        for (int y = 0; y < original.getHeight(); y++) {
-            for (int x = 0; x < original.getWidth(); x++) {
-                Pixel originalPixel = original.getPixel(y, x);
-                Pixel decompressedPixel = decompressed.getPixel(y, x);
-                
-                // Calculate the difference for each color channel.
-                int redDiff = Math.abs(originalPixel.getRed() - decompressedPixel.getRed());
-                int greenDiff = Math.abs(originalPixel.getGreen() - decompressedPixel.getGreen());
-                int blueDiff = Math.abs(originalPixel.getBlue() - decompressedPixel.getBlue());
-                
-                // Track the maximum difference in any single channel.
-                int maxDiff = Math.max(redDiff, Math.max(greenDiff, blueDiff));
-                if (maxDiff > maxColorDifference) {
-                    maxColorDifference = maxDiff;
-                }
-                
-                // Accumulate differences for average calculation.
-                totalRedDiff += redDiff;
-                totalGreenDiff += greenDiff;
-                totalBlueDiff += blueDiff;
-                
-                // Check if pixels are exactly the same or just similar.
-                if (redDiff == 0 && greenDiff == 0 && blueDiff == 0) {
-                    exactMatches++;
-                } else if (redDiff <= colorTolerance && greenDiff <= colorTolerance && blueDiff <= colorTolerance) {
-                    similarPixels++;
-                }
-            }
-        }
-        
-        // Calculate percentages and averages.
-        double exactMatchPercent = ((double) exactMatches / totalPixels) * 100;
-        double similarPercent = ((double) similarPixels / totalPixels) * 100;
-        double avgRedDiff = (double) totalRedDiff / totalPixels;
-        double avgGreenDiff = (double) totalGreenDiff / totalPixels;
-        double avgBlueDiff = (double) totalBlueDiff / totalPixels;
+        // Calculate percentages.
+        double exactMatchPercent = totalPixels == 0 ? 100 : ((double) exactMatches / totalPixels) * 100;
+        double similarPercent = totalPixels == 0 ? 0 : ((double) metrics.getSimilarPixels() / totalPixels) * 100;
         
         // Print the verification results.
         System.out.println("Compression mode: " + (colorTolerance == 0 ? "LOSSLESS" : "LOSSY (tolerance=" + colorTolerance + ")"));
@@ -403,17 +924,20 @@ public class CompressedImage {
         System.out.println("  Exact matches: " + exactMatches + " (" + String.format("%.2f", exactMatchPercent) + "%)");
         
         if (colorTolerance > 0) {
-            System.out.println("  Similar (within tolerance): " + similarPixels + " (" + String.format("%.2f", similarPercent) + "%)");
-            int differentPixels = totalPixels - exactMatches - similarPixels;
-            double differentPercent = ((double) differentPixels / totalPixels) * 100;
-            System.out.println("  Outside tolerance: " + differentPixels + " (" + String.format("%.2f", differentPercent) + "%)");
+            System.out.println("  Similar (within tolerance): " + metrics.getSimilarPixels() + " (" + String.format("%.2f", similarPercent) + "%)");
+            double differentPercent = totalPixels == 0 ? 0 : ((double) metrics.getOutsideTolerance() / totalPixels) * 100;
+            System.out.println("  Outside tolerance: " + metrics.getOutsideTolerance() + " (" + String.format("%.2f", differentPercent) + "%)");
         }
         
         System.out.println("\nColor difference analysis:");
-        System.out.println("  Average Red difference: " + String.format("%.2f", avgRedDiff) + " (out of 255)");
-        System.out.println("  Average Green difference: " + String.format("%.2f", avgGreenDiff) + " (out of 255)");
-        System.out.println("  Average Blue difference: " + String.format("%.2f", avgBlueDiff) + " (out of 255)");
-        System.out.println("  Maximum difference in any channel: " + maxColorDifference);
+        System.out.println("  Average Red difference: " + String.format("%.2f", metrics.getChannelMeanAbsoluteError(0)) + " (out of 255)");
+        System.out.println("  Average Green difference: " + String.format("%.2f", metrics.getChannelMeanAbsoluteError(1)) + " (out of 255)");
+        System.out.println("  Average Blue difference: " + String.format("%.2f", metrics.getChannelMeanAbsoluteError(2)) + " (out of 255)");
+        System.out.println("  Maximum difference in any channel: " + metrics.getMaxError());
+        System.out.println("\nQuality metrics:");
+        System.out.println("  MAE (all channels): " + String.format("%.3f", metrics.getMeanAbsoluteError()));
+        System.out.println("  PSNR: " + (Double.isInfinite(metrics.getPSNR()) ? "infinite (identical images)" : String.format("%.2f dB", metrics.getPSNR())));
+        System.out.println("  SSIM (8x8 windows): " + String.format("%.4f", metrics.getSSIM()));
         
         // Print the verification results.
         if (exactMatches == totalPixels) {
@@ -0,0 +1,198 @@
+import java.util.Locale;
+
+// Statistics about the runs of one compressed image, collected WHILE the runs are created: RunEncoder calls addRun
+// every time it closes a run (see CompressedImage.analyze), so getting them costs no extra pass over the image or the
+// runs. For run lists that were built some other way, CompressionStats.of collects them in one pass over the runs.
+//
+// What is collected:
+//   - number of runs, pixels, the longest run (and its color) and the mean run length;
+//   - a histogram of the run lengths in powers of two: bucket k counts the runs of 2^k to 2^(k+1) - 1 pixels;
+//   - an estimate of how many different colors the runs have, with a HyperLogLog sketch (4 KB, about 1.6% error, no
+//     matter if there are 10 colors or 10 million);
+//   - how many runs start in every row, and what those runs cost in the .rle file (bytes per row).
+// toJson() writes all of it as one JSON object, for dashboards and bulk jobs.
+public class CompressionStats {
+    private static final int HISTOGRAM_BUCKETS = 32; // A run length is an int, so 2^31 is the biggest bucket.
+    private static final int SKETCH_BITS = 12; // 2^12 registers.
+    private static final int REGISTERS = 1 << SKETCH_BITS;
+
+    private final int width;
+    private final int height;
+    private final int runRecordSize; // Bytes per run in the .rle file.
+    private long runCount;
+    private long pixelCount;
+    private int longestRun;
+    private int longestRunColor;
+    private final long[] lengthHistogram = new long[HISTOGRAM_BUCKETS];
+    private final byte[] registers = new byte[REGISTERS]; // HyperLogLog: the highest "rank" seen in every register.
+    private final int[] runsPerRow;
+    private int row; // Row of the next run's first pixel.
+    private long rowEnd; // First pixel after that row.
+
+    public CompressionStats(int width, int height, int runRecordSize) {
+        this.width = width;
+        this.height = height;
+        this.runRecordSize = runRecordSize;
+        this.runsPerRow = new int[height];
+        this.rowEnd = width;
+    }
+
+    // Statistics of an existing run list, in one pass over its runs.
+    public static CompressionStats of(RunList runs, int width, int height, int runRecordSize) {
+        CompressionStats stats = new CompressionStats(width, height, runRecordSize);
+        for (int i = 0; i < runs.size(); i++) {
+            stats.addRun(runs.getColor(i), runs.getLength(i));
+        }
+        return stats;
+    }
+
+    // Count one more run (runs must come in image order).
+    public void addRun(int color, int length) {
+        runCount++;
+        if (length > longestRun) {
+            longestRun = length;
+            longestRunColor = color;
+        }
+        lengthHistogram[31 - Integer.numberOfLeadingZeros(Math.max(1, length))]++;
+
+        // HyperLogLog: the first 12 bits of the hash pick a register, the rank is the position of the first 1 bit in the
+        // other 20 bits. Many different colors => some register sees a high rank.
+        int hash = mix(color);
+        int register = hash >>> (32 - SKETCH_BITS);
+        int rank = Math.min(Integer.numberOfLeadingZeros(hash << SKETCH_BITS), 32 - SKETCH_BITS) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+
+        // Move to the row of this run's first pixel (a run can cover several rows, so it may skip some).
+        while (pixelCount >= rowEnd && row < height - 1) {
+            row++;
+            rowEnd += width;
+        }
+        if (row < height) {
+            runsPerRow[row]++;
+        }
+        pixelCount += length;
+    }
+
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public long getPixelCount() {
+        return pixelCount;
+    }
+
+    public int getLongestRun() {
+        return longestRun;
+    }
+
+    public int getLongestRunColor() {
+        return longestRunColor;
+    }
+
+    public double getMeanRunLength() {
+        return runCount == 0 ? 0 : (double) pixelCount / runCount;
+    }
+
+    // Runs of 2^bucket to 2^(bucket + 1) - 1 pixels.
+    public long getRunsInBucket(int bucket) {
+        return lengthHistogram[bucket];
+    }
+
+    public long[] getLengthHistogram() {
+        return lengthHistogram.clone();
+    }
+
+    // Estimated number of different colors among the runs (in lossless mode, the colors of the image).
+    public long getEstimatedColorCount() {
+        double sum = 0;
+        int emptyRegisters = 0;
+        for (byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                emptyRegisters++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && emptyRegisters > 0) { // Few colors: counting empty registers is more exact.
+            estimate = REGISTERS * Math.log((double) REGISTERS / emptyRegisters);
+        }
+        return Math.round(estimate);
+    }
+
+    public int[] getRunsPerRow() { // How many runs start in every row.
+        return runsPerRow.clone();
+    }
+
+    public int getMaxRunsPerRow() {
+        int max = 0;
+        for (int runs : runsPerRow) {
+            max = Math.max(max, runs);
+        }
+        return max;
+    }
+
+    public double getMeanRunsPerRow() {
+        return height == 0 ? 0 : (double) runCount / height;
+    }
+
+    public long getBytesInRow(int row) { // .rle bytes of the runs that start in 'row'.
+        return (long) runsPerRow[row] * runRecordSize;
+    }
+
+    public long getMaxBytesPerRow() {
+        return (long) getMaxRunsPerRow() * runRecordSize;
+    }
+
+    // All the statistics as one JSON object (runsPerRow has one number per row).
+    public String toJson() {
+        StringBuilder json = new StringBuilder(256 + 8 * height);
+        json.append('{');
+        json.append("\"width\":").append(width);
+        json.append(",\"height\":").append(height);
+        json.append(",\"runs\":").append(runCount);
+        json.append(",\"pixels\":").append(pixelCount);
+        json.append(",\"longestRun\":").append(longestRun);
+        json.append(",\"longestRunColor\":\"").append(String.format("#%06X", longestRunColor)).append('"');
+        json.append(",\"meanRunLength\":").append(String.format(Locale.ROOT, "%.3f", getMeanRunLength()));
+        json.append(",\"estimatedColors\":").append(getEstimatedColorCount());
+        json.append(",\"runRecordBytes\":").append(runRecordSize);
+        json.append(",\"maxRunsPerRow\":").append(getMaxRunsPerRow());
+        json.append(",\"meanRunsPerRow\":").append(String.format(Locale.ROOT, "%.3f", getMeanRunsPerRow()));
+        json.append(",\"maxBytesPerRow\":").append(getMaxBytesPerRow());
+        int lastBucket = HISTOGRAM_BUCKETS - 1;
+        while (lastBucket > 0 && lengthHistogram[lastBucket] == 0) {
+            lastBucket--;
+        }
+        json.append(",\"runLengthHistogram\":[");
+        for (int bucket = 0; bucket <= lastBucket; bucket++) {
+            if (bucket > 0) {
+                json.append(',');
+            }
+            json.append("{\"from\":").append(1L << bucket).append(",\"to\":").append((1L << (bucket + 1)) - 1)
+                .append(",\"runs\":").append(lengthHistogram[bucket]).append('}');
+        }
+        json.append("],\"runsPerRow\":[");
+        for (int y = 0; y < height; y++) {
+            if (y > 0) {
+                json.append(',');
+            }
+            json.append(runsPerRow[y]);
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    // A good 32-bit hash of a color (the finalizer of MurmurHash3), so similar colors land in unrelated registers.
+    private static int mix(int value) {
+        int hash = value;
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -1,17 +1,26 @@
 import java.awt.image.BufferedImage; // Standard Java library for handling image data in memory.
 import java.io.File; // Standard Java library for file system operations.
 import java.io.IOException; // Exception handling for file errors.
+import java.util.Arrays;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 
 public class CustomImage {
     private int width; // Width of the image in pixels
     private int height; // Height of the image in pixels
-    private Pixel[][] pixels; // 2D array to store the pixel data of the image
+
+    // The pixel data of the image. Originally this was a Pixel[][] (one object per pixel), but a 24 MP photo needed
+    // 24 million objects before anything else could run. Now every pixel is a packed 0xRRGGBB int (see Pixel.pack)
+    // stored row after row in ONE array: the pixel at (coordY, coordX) lives at index coordY * width + coordX.
+    private int[] packedPixels;
 
     public CustomImage(int width, int height) { // Constructor to initialize the image with specified width and height
         this.width = width; // Set the width of the image to the provided value
         this.height = height; // Set the height of the image to the provided value
-        this.pixels = new Pixel[height][width]; // Initialize the 2D array to store pixel data based on the specified dimensions
+        this.packedPixels = new int[width * height]; // One int per pixel, already black (0x000000) because Java zeroes new arrays.
     }
 
     // Getters for the width, height, and pixels of the image.
@@ -23,39 +32,75 @@ public class CustomImage {
         return height; // Return the height of the image
     } 
 
-    public Pixel[][] getPixels() { // Getter for the pixel data of the image
-        return pixels; // Return the 2D array containing the pixel data of the image
+    // Direct access to the packed backing store. This is what the compressor uses, so it never creates Pixel objects.
+    public int[] getPackedPixels() {
+        return packedPixels;
+    }
+
+    // Compatibility getter for code written against the old Pixel[][] layout. Every entry is a view that reads and writes
+    // straight into the packed store, so this allocates width*height objects and should not be used in hot paths.
+    public Pixel[][] getPixels() {
+        Pixel[][] views = new Pixel[height][width];
+        for (int coordY = 0; coordY < height; coordY++) {
+            for (int coordX = 0; coordX < width; coordX++) {
+                views[coordY][coordX] = new PixelView(coordY * width + coordX);
+            }
+        }
+        return views;
     }
 
     // Setters for the width, height, and pixels of the image.
+    // Changing a dimension changes the size of the backing store, so the image starts blank again.
     public void setWidth(int width) {
         this.width = width;
+        this.packedPixels = new int[width * height];
     }
 
     public void setHeight(int height) {
         this.height = height;
+        this.packedPixels = new int[width * height];
     }
 
+    // Copy the colors of an old-style Pixel[][] grid into the packed store (the grid must match the image dimensions).
     public void setPixels(Pixel[][] pixels) {
-        this.pixels = pixels;
+        for (int coordY = 0; coordY < height; coordY++) {
+            for (int coordX = 0; coordX < width; coordX++) {
+                packedPixels[coordY * width + coordX] = pixels[coordY][coordX].toRGB();
+            }
+        }
     }
 
-    // Method to initialize all pixels in the 2D array with new Pixel objects.
+    // Method to reset all pixels to black. With the packed store there are no objects to create anymore, this is kept so
+    // older code that calls it before writing pixels keeps working.
     public void initializePixels() { 
-        for (int coordY = 0; coordY < getHeight(); coordY++) { // Loop through each row of the image (starts from 0 and goes down to height-1).
-            for (int coordX = 0; coordX < getWidth(); coordX++) { // Loop through each column of the image (starts from 0 and goes across to width-1).
-                pixels[coordY][coordX] = new Pixel(); // Initialize each pixel in the 2D array with a new Pixel object (using the default 
-                // constructor which sets RGB values to 0 to avoid NullPointerException when trying to access pixel data before initialization).
-            }
-        }
+        Arrays.fill(packedPixels, 0);
     }
 
     // To allow CompressedImage class to use CustomImage as a tool, I have to create a method (getPixel) that receives X & Y coordinates, 
     // and returns the Pixel object that is in that position.
     // getPixel is a method to get the Pixel object at a specific X,Y position in the image. It must be public so that it can be accessed 
     // from the CompressedImage class.
+    // The returned Pixel is a small view over the packed store: calling setRGB on it changes the image, like before.
     public Pixel getPixel(int coordY, int coordX) { 
-        return pixels[coordY][coordX]; // Return the Pixel object stored in the 2D array at the specified coordinates (Y is the row and X is the column).
+        return new PixelView(coordY * width + coordX);
+    }
+
+    // Allocation-free versions of getPixel/setPixel that work with packed 0xRRGGBB colors.
+    public int getRGB(int coordY, int coordX) {
+        return packedPixels[coordY * width + coordX];
+    }
+
+    public void setRGB(int coordY, int coordX, int rgb) {
+        packedPixels[coordY * width + coordX] = rgb & 0xFFFFFF; // Drop any alpha byte so the store only holds 0xRRGGBB.
+    }
+
+    // Bulk row accessors: copy a whole row in or out of the packed store with a single System.arraycopy.
+    public void getRow(int coordY, int[] destination, int offset) {
+        System.arraycopy(packedPixels, coordY * width, destination, offset, width);
+    }
+
+    public void setRow(int coordY, int[] source, int offset) {
+        System.arraycopy(source, offset, packedPixels, coordY * width, width);
     }
 
     // Auxiliary methods to help create an object same as the original image and to decompress the image:
@@ -63,6 +108,7 @@ public class CustomImage {
     // Static method to create a CustomImage directly from a file path.
     // This communicates between image files and the custom class.
     public static CustomImage fromFile(String filePath) throws IOException {
+        Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.FROM_FILE); // Timing (see Instrumentation).
         File file = new File(filePath);
 
         // 1. Validation: Check if the file is actually readable by the OS.
@@ -72,7 +118,7 @@ public class CustomImage {
 
         // 2. Validation: Check if the file is empty (common cause for ImageIO failure).
         if (file.length() == 0) {
-            throw new IOException("FILE ERROR: The file 'test.jpg' is empty (0 bytes).");
+            throw new IOException("FILE ERROR: The file '" + file.getName() + "' is empty (0 bytes).");
         }
 
         // 3. Attempting to read the image.
@@ -80,42 +126,53 @@ public class CustomImage {
 
         // 4. Checking if ImageIO failed to decode the format.
         if (validImage == null) {
-            throw new IOException("FORMAT ERROR: 'test.jpg' is not a valid image or the format is not supported by ImageIO.");
+            throw new IOException("FORMAT ERROR: '" + file.getName() + "' is not a valid image or the format is not supported by ImageIO.");
         }
         
         // Create our CustomImage object and fill it with pixel data.
         CustomImage loadedImage = new CustomImage(validImage.getWidth(), validImage.getHeight());
-        loadedImage.initializePixels(); 
-
-        for (int y = 0; y < loadedImage.getHeight(); y++) {
-            for (int x = 0; x < loadedImage.getWidth(); x++) {
-                int rgb = validImage.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = (rgb) & 0xFF;
-                
-                // Use the Pixel setter to assign RGB values.
-                loadedImage.getPixel(y, x).setRGB(r, g, b); 
-            }
-        }
+        // Copy straight from the image's raster for the common types, with getRGB as the fallback (see RasterAccess).
+        RasterAccess.readPixels(validImage, loadedImage.getWidth(), loadedImage.getHeight(), loadedImage.getPackedPixels(), 0);
+        Instrumentation.end(span, loadedImage.packedPixels.length, 0, file.length());
         return loadedImage;
     }
 
-    // Method to save the CustomImage back to a file (JPG format).
+    // Method to save the CustomImage back to a file.
     // This method will take the pixel data from the CustomImage and write it to a new image file at the specified output path.
+    // The format comes from the extension (.png, .bmp, .jpg); unknown extensions are saved as JPG like before.
     public void saveToFile(String outputPath) throws IOException { 
-        // Create a BufferedImage to hold the pixel data in a format that can be saved as an image file.
-        BufferedImage img = new BufferedImage(this.width, this.height, BufferedImage.TYPE_INT_RGB);
-
-        // Loop through all pixels and transfer them to the BufferedImage.
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Pixel p = pixels[y][x];
-                // Recombine R, G, B into a single integer value for Java's image format.
-                int rgb = (p.getRed() << 16) | (p.getGreen() << 8) | p.getBlue();
-                img.setRGB(x, y, rgb);
-            }
+        saveToFile(outputPath, ImageFormat.fromPath(outputPath));
+    }
+
+    // Save in a specific format with the writer's default settings.
+    public void saveToFile(String outputPath, ImageFormat format) throws IOException {
+        write(outputPath, format, Float.NaN);
+    }
+
+    // Save as JPEG with a quality between 0 (smallest file) and 1 (best quality).
+    public void saveAsJpeg(String outputPath, float quality) throws IOException {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 1.");
         }
+        write(outputPath, ImageFormat.JPEG, quality);
+    }
+
+    // Save as PNG with a compression level between 0 (no compression, fastest) and 9 (smallest file). PNG is lossless.
+    public void saveAsPng(String outputPath, int compressionLevel) throws IOException {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("PNG compression level must be between 0 and 9.");
+        }
+        // The PNG writer expresses the level as a "quality": 1 means no compression and 0 means level 9.
+        write(outputPath, ImageFormat.PNG, 1f - compressionLevel / 9f);
+    }
+
+    // Write the image with a pooled ImageWriter (see ImageWriterPool). compressionQuality is the value given to
+    // ImageWriteParam.setCompressionQuality, or NaN to keep the writer's default.
+    private void write(String outputPath, ImageFormat format, float compressionQuality) throws IOException {
+        Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.SAVE);
+        // Create a BufferedImage to hold the pixel data in a format that can be saved as an image file.
+        // The packed store already uses the 0xRRGGBB layout of TYPE_INT_RGB, so it is copied into the raster in one go.
+        BufferedImage img = RasterAccess.toBufferedImage(packedPixels, width, height);
         
         // CRITICAL FIX: Use the outputPath parameter instead of a hardcoded path.
         // Create a File object from the provided path.
@@ -126,9 +183,33 @@ public class CustomImage {
         if (parentDir != null && !parentDir.exists()) {
             parentDir.mkdirs(); // Create any missing parent folders.
         }
+
+        // An image output stream overwrites a file in place without truncating it, so remove the old file first
+        // (ImageIO.write does the same).
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("FILE ERROR: could not replace the existing file: " + outputPath);
+        }
         
-        // Write the image to the file system as a JPG.
-        ImageIO.write(img, "jpg", outputFile);
+        ImageWriter writer = ImageWriterPool.borrow(format);
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(outputFile)) {
+            if (output == null) {
+                throw new IOException("FILE ERROR: could not create the output file: " + outputPath);
+            }
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (!Float.isNaN(compressionQuality) && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(compressionQuality);
+            }
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } catch (IOException | RuntimeException e) {
+            ImageWriterPool.discard(writer); // A writer that failed halfway is not reused.
+            throw e;
+        }
+        ImageWriterPool.release(format, writer);
+        if (span != null) { // Only ask the file system for the size when someone is measuring.
+            Instrumentation.end(span, packedPixels.length, 0, outputFile.length());
+        }
     }
     
     // This method allows the Decompressor to set the pixel data at specific coordinates in the CustomImage.
@@ -136,7 +217,37 @@ public class CustomImage {
         // If the coordinates are within the bounds of the image, set the pixel data at the specified coordinates to the provided Pixel object.
         if (y < height && x < width && y >= 0 && x >= 0) {
             // Copy the RGB values to avoid reference issues.
-            this.pixels[y][x].setRGB(p.getRed(), p.getGreen(), p.getBlue());
+            this.packedPixels[y * width + x] = p.toRGB();
+        }
+    }
+
+    // The Pixel returned by getPixel. It does not keep its own red/green/blue fields, it reads and writes one slot of
+    // the packed store, so old code that does getPixel(y, x).setRGB(r, g, b) still changes the image.
+    private class PixelView extends Pixel {
+        private final int index; // Position of this pixel in the packed store.
+
+        PixelView(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int getRed() {
+            return Pixel.redOf(packedPixels[index]);
+        }
+
+        @Override
+        public int getGreen() {
+            return Pixel.greenOf(packedPixels[index]);
+        }
+
+        @Override
+        public int getBlue() {
+            return Pixel.blueOf(packedPixels[index]);
+        }
+
+        @Override
+        public void setRGB(int red, int green, int blue) {
+            packedPixels[index] = Pixel.pack(red, green, blue);
         }
     }
 }
\ No newline at end of file
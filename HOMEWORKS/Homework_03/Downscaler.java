@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+// Shrinks a run list by an integer factor (2 = half the width and half the height) with a box filter: every
+// destination pixel is the average of the factor x factor block of source pixels it covers. Used for thumbnails and
+// for the mip pyramid of CompressedImage.
+//
+// The source is NEVER decompressed. The runs are walked in row order and every piece of a run that falls in one row
+// adds (color * number of pixels) to the sums of the destination columns it covers, so a long run costs one update per
+// destination pixel, not one per source pixel. When the last source row of a block row is done, the averages of that
+// destination row are fed to a RunEncoder and the sums start again. Memory: three sums and a count per destination
+// column, plus one destination row.
+//
+// If the width or height is not a multiple of the factor, the last column/row of blocks is smaller and is averaged
+// over the pixels it really has.
+public class Downscaler {
+    private Downscaler() { // Only static methods.
+    }
+
+    public static int scaledSize(int size, int factor) {
+        return (size + factor - 1) / factor;
+    }
+
+    // Box-filter 'runs' (covering width x height pixels) down by 'factor' and encode the result with 'tolerance'.
+    public static RunList downscale(RunList runs, int width, int height, int factor, int tolerance) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("The downscale factor must be at least 1, not " + factor + ".");
+        }
+        int targetWidth = scaledSize(width, factor);
+        long[] redSums = new long[targetWidth];
+        long[] greenSums = new long[targetWidth];
+        long[] blueSums = new long[targetWidth];
+        int[] counts = new int[targetWidth]; // Source pixels added to every column so far.
+        int[] targetRow = new int[targetWidth];
+        int fullBlock = factor * factor;
+        int blockShift = Integer.bitCount(factor) == 1 ? 2 * Integer.numberOfTrailingZeros(factor) : -1;
+        RunEncoder encoder = new RunEncoder(tolerance);
+        RunList out = new RunList(Math.max(16, runs.size() / (factor * factor)));
+
+        int run = 0;
+        int leftInRun = runs.size() > 0 ? runs.getLength(0) : 0;
+        for (int y = 0; y < height; y++) {
+            int x = 0;
+            while (x < width) {
+                if (run >= runs.size()) {
+                    throw new IllegalArgumentException("The runs cover fewer pixels than " + width + " x " + height + ".");
+                }
+                int color = runs.getColor(run);
+                int end = Math.min(width, x + leftInRun); // This piece of the run, clipped to the row.
+                addSpan(color, x, end, factor, redSums, greenSums, blueSums, counts);
+                leftInRun -= end - x;
+                x = end;
+                if (leftInRun == 0 && ++run < runs.size()) {
+                    leftInRun = runs.getLength(run);
+                }
+            }
+            if (y % factor == factor - 1 || y == height - 1) { // The block row is complete: emit its averages.
+                for (int column = 0; column < targetWidth; column++) {
+                    int count = counts[column];
+                    int half = count / 2;
+                    if (count == fullBlock && blockShift >= 0) { // Full block and a power-of-two factor: shift, don't divide.
+                        targetRow[column] = Pixel.pack(
+                            (int) ((redSums[column] + half) >> blockShift),
+                            (int) ((greenSums[column] + half) >> blockShift),
+                            (int) ((blueSums[column] + half) >> blockShift));
+                    } else {
+                        targetRow[column] = Pixel.pack(
+                            (int) ((redSums[column] + half) / count),
+                            (int) ((greenSums[column] + half) / count),
+                            (int) ((blueSums[column] + half) / count));
+                    }
+                }
+                encoder.encode(targetRow, 0, targetWidth, out);
+                Arrays.fill(redSums, 0);
+                Arrays.fill(greenSums, 0);
+                Arrays.fill(blueSums, 0);
+                Arrays.fill(counts, 0);
+            }
+        }
+        encoder.finish(out);
+        out.trimToSize();
+        return out;
+    }
+
+    // Add the source pixels [start, end) of one row, all of color 'color', to the destination columns they fall in.
+    private static void addSpan(int color, int start, int end, int factor, long[] redSums, long[] greenSums, long[] blueSums, int[] counts) {
+        int red = Pixel.redOf(color);
+        int green = Pixel.greenOf(color);
+        int blue = Pixel.blueOf(color);
+        int column = start / factor;
+        if (end <= (column + 1) * factor) { // Most short runs fall inside one destination column.
+            int pixels = end - start;
+            redSums[column] += (long) red * pixels;
+            greenSums[column] += (long) green * pixels;
+            blueSums[column] += (long) blue * pixels;
+            counts[column] += pixels;
+            return;
+        }
+        int position = start;
+        while (position < end) {
+            int columnEnd = Math.min(end, (column + 1) * factor);
+            int pixels = columnEnd - position;
+            redSums[column] += (long) red * pixels;
+            greenSums[column] += (long) green * pixels;
+            blueSums[column] += (long) blue * pixels;
+            counts[column] += pixels;
+            position = columnEnd;
+            column++;
+        }
+    }
+}
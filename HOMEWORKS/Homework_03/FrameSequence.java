@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compresses a sequence of frames of the same size (screen captures, rendered animations...) where every frame is
+// almost the same as the one before it.
+//
+// Every keyframeInterval frames there is a KEYFRAME, compressed on its own exactly like CompressedImage.analyze does.
+// Every other frame is a DELTA frame, whose runs are of two kinds:
+//   - UNCHANGED runs (color = UNCHANGED): "these pixels are the same as in the previous frame";
+//   - normal color runs for the pixels that changed.
+// So a frame where only a small part moved costs a few runs, no matter how big the frame is, and decoding it only
+// PATCHES the previous frame: unchanged runs just move the position forward, only the changed pixels are painted.
+//
+// In lossy mode a pixel counts as unchanged when it is within the tolerance of the previous frame AS THE DECODER SEES
+// IT (the encoder keeps that reconstructed frame), not of the previous original frame. That way small differences can't
+// add up from frame to frame: every decoded pixel stays within the tolerance of its original.
+public class FrameSequence {
+    public static final int UNCHANGED = -1; // Color of an "unchanged" run (real colors only use 24 bits).
+
+    private final int width;
+    private final int height;
+    private final int colorTolerance;
+    private final int keyframeInterval;
+    private final List<RunList> frames = new ArrayList<>();
+    private final int[] reference; // The last frame exactly as the decoder rebuilds it.
+    private final RunScanner scanner = RunScanner.best();
+
+    public FrameSequence(int width, int height, int tolerance, int keyframeInterval) {
+        if (width <= 0 || height <= 0 || keyframeInterval < 1) {
+            throw new IllegalArgumentException("Invalid sequence: " + width + " x " + height + " frames with a keyframe every " + keyframeInterval + " frames.");
+        }
+        this.width = width;
+        this.height = height;
+        this.colorTolerance = tolerance;
+        this.keyframeInterval = keyframeInterval;
+        this.reference = new int[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    public boolean isKeyframe(int frame) {
+        return frame % keyframeInterval == 0;
+    }
+
+    public RunList getRuns(int frame) { // The runs of one frame (delta frames contain UNCHANGED runs).
+        return frames.get(frame);
+    }
+
+    // Size of the whole sequence if every run is stored like in an .rle file (7 bytes per run).
+    public long getEncodedBytes() {
+        long runs = 0;
+        for (RunList frame : frames) {
+            runs += frame.size();
+        }
+        return runs * RLEFileWriter.RUN_RECORD_SIZE;
+    }
+
+    // Compress the next frame of the sequence.
+    public void addFrame(CustomImage frame) {
+        if (frame.getWidth() != width || frame.getHeight() != height) {
+            throw new IllegalArgumentException("Every frame must be " + width + " x " + height + ", not " + frame.getWidth() + " x " + frame.getHeight() + ".");
+        }
+        int[] pixels = frame.getPackedPixels();
+        RunList runs;
+        if (isKeyframe(frames.size())) {
+            CompressedImage keyframe = new CompressedImage(colorTolerance);
+            keyframe.setVerbose(false);
+            keyframe.analyze(frame);
+            runs = keyframe.getRuns();
+            apply(runs, reference); // The reference is now the keyframe as the decoder will see it.
+        } else {
+            runs = encodeDelta(pixels);
+        }
+        frames.add(runs);
+    }
+
+    // Delta frame: alternate UNCHANGED runs (pixels similar to the reference) and color runs (the others), updating the
+    // reference with what the decoder will rebuild.
+    private RunList encodeDelta(int[] pixels) {
+        RunList runs = new RunList();
+        int total = pixels.length;
+        int index = 0;
+        while (index < total) {
+            if (RunEncoder.similar(pixels[index], reference[index], colorTolerance)) {
+                int end = unchangedEnd(pixels, index);
+                runs.add(UNCHANGED, end - index);
+                index = end;
+            } else {
+                // A color run: it continues while the pixels are similar to its first pixel (like analyze). Pixels
+                // that break it are checked again above, so an unchanged area right after it becomes an UNCHANGED run.
+                int anchor = pixels[index];
+                int end = scanner.scan(pixels, index + 1, total, anchor, colorTolerance);
+                runs.add(anchor, end - index);
+                Arrays.fill(reference, index, end, anchor);
+                index = end;
+            }
+        }
+        runs.trimToSize();
+        return runs;
+    }
+
+    // First pixel from 'from' on that is NOT similar to the reference. In lossless mode that is Arrays.mismatch, which
+    // the JVM compiles to SIMD compares.
+    private int unchangedEnd(int[] pixels, int from) {
+        if (colorTolerance == 0) {
+            int mismatch = Arrays.mismatch(pixels, from, pixels.length, reference, from, reference.length);
+            return mismatch < 0 ? pixels.length : from + mismatch;
+        }
+        int index = from;
+        while (index < pixels.length && RunEncoder.similar(pixels[index], reference[index], colorTolerance)) {
+            index++;
+        }
+        return index;
+    }
+
+    // Patch 'buffer', which holds frame - 1 (anything, for a keyframe), into frame number 'frame'. Only the changed
+    // pixels are written, so the cost depends on how much changed, not on the frame size.
+    public void applyFrame(int frame, int[] buffer) {
+        if (buffer.length != width * height) {
+            throw new IllegalArgumentException("The buffer must hold " + width * height + " pixels, not " + buffer.length + ".");
+        }
+        apply(frames.get(frame), buffer);
+    }
+
+    // Decode frame number 'frame' into 'buffer' from scratch: start at the keyframe before it and patch forward.
+    public void seek(int frame, int[] buffer) {
+        if (frame < 0 || frame >= frames.size()) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " does not exist (the sequence has " + frames.size() + " frames).");
+        }
+        for (int current = frame - frame % keyframeInterval; current <= frame; current++) {
+            applyFrame(current, buffer);
+        }
+    }
+
+    // Decode frame number 'frame' into a new image.
+    public CustomImage decodeFrame(int frame) {
+        CustomImage image = new CustomImage(width, height);
+        seek(frame, image.getPackedPixels());
+        return image;
+    }
+
+    // Paint the color runs and skip over the UNCHANGED ones.
+    private static void apply(RunList runs, int[] buffer) {
+        int position = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            int length = runs.getLength(i);
+            int color = runs.getColor(i);
+            if (color != UNCHANGED) {
+                Arrays.fill(buffer, position, position + length, color);
+            }
+            position += length;
+        }
+    }
+}
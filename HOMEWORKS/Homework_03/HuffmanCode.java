@@ -0,0 +1,196 @@
+import java.util.Arrays;
+
+// A canonical Huffman code over byte symbols (0..255), used by the entropy-coded .rle files (see RLEFileWriter).
+//
+// Symbols that appear often get short codes and rare ones get long codes. "Canonical" means the codes are fully
+// defined by their LENGTHS (codes of the same length are consecutive numbers in symbol order), so the file only has to
+// store one length per symbol, 4 bits each. Lengths are limited to 15 bits, so the decoder can use a single lookup
+// table of 2^15 entries: it peeks the next 15 bits and the table says which symbol they start with and how long its
+// code really is. Decoding a symbol is then one table read, no tree walking.
+public class HuffmanCode {
+    public static final int SYMBOLS = 256;
+    public static final int MAX_CODE_LENGTH = 15;
+
+    private final byte[] lengths; // Code length of every symbol (0 = the symbol never appears).
+    private final int[] codes; // The code of every symbol, in its lowest 'length' bits.
+    private char[] decodeTable; // Built the first time it is needed: (symbol << 4) | length, 0 = invalid code.
+
+    private HuffmanCode(byte[] lengths) {
+        this.lengths = lengths;
+        this.codes = canonicalCodes(lengths);
+    }
+
+    // Build the code that best fits these symbol counts.
+    public static HuffmanCode fromFrequencies(long[] frequencies) {
+        return new HuffmanCode(codeLengths(frequencies));
+    }
+
+    // Rebuild a code from its lengths (as read from a file). Throws IllegalArgumentException if the lengths can't be
+    // a valid prefix code.
+    public static HuffmanCode fromLengths(byte[] lengths) {
+        if (lengths.length != SYMBOLS) {
+            throw new IllegalArgumentException("A code needs " + SYMBOLS + " lengths, not " + lengths.length + ".");
+        }
+        long kraft = 0; // Sum of 2^(15 - length): more than 2^15 means some codes overlap.
+        for (byte length : lengths) {
+            if (length < 0 || length > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Invalid code length " + length + ".");
+            }
+            if (length > 0) {
+                kraft += 1L << (MAX_CODE_LENGTH - length);
+            }
+        }
+        if (kraft > 1L << MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("The code lengths don't form a prefix code.");
+        }
+        return new HuffmanCode(lengths.clone());
+    }
+
+    public int getLength(int symbol) {
+        return lengths[symbol];
+    }
+
+    public int getCode(int symbol) {
+        return codes[symbol];
+    }
+
+    // The lookup table of the decoder: entry v, for the next 15 bits v of the stream, is (symbol << 4) | codeLength,
+    // or 0 if no code starts with those bits.
+    public char[] decodeTable() {
+        char[] table = decodeTable;
+        if (table == null) {
+            table = new char[1 << MAX_CODE_LENGTH];
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                int length = lengths[symbol];
+                if (length > 0) {
+                    int first = codes[symbol] << (MAX_CODE_LENGTH - length);
+                    Arrays.fill(table, first, first + (1 << (MAX_CODE_LENGTH - length)), (char) ((symbol << 4) | length));
+                }
+            }
+            decodeTable = table;
+        }
+        return table;
+    }
+
+    // Write the 256 code lengths as 4-bit values, two per byte (128 bytes).
+    public byte[] packedLengths() {
+        byte[] packed = new byte[SYMBOLS / 2];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = (byte) ((lengths[2 * i] << 4) | lengths[2 * i + 1]);
+        }
+        return packed;
+    }
+
+    // The inverse of packedLengths.
+    public static byte[] unpackLengths(byte[] packed) {
+        byte[] lengths = new byte[SYMBOLS];
+        for (int i = 0; i < packed.length; i++) {
+            lengths[2 * i] = (byte) ((packed[i] >> 4) & 0x0F);
+            lengths[2 * i + 1] = (byte) (packed[i] & 0x0F);
+        }
+        return lengths;
+    }
+
+    // Huffman code lengths for these counts. The classic algorithm (keep merging the two lightest nodes) is run on at
+    // most 511 nodes; if a code ends up longer than 15 bits, the counts are halved (which flattens the tree) and it is
+    // tried again.
+    static byte[] codeLengths(long[] frequencies) {
+        long[] counts = frequencies.clone();
+        while (true) {
+            byte[] lengths = treeDepths(counts);
+            int longest = 0;
+            for (byte length : lengths) {
+                longest = Math.max(longest, length);
+            }
+            if (longest <= MAX_CODE_LENGTH) {
+                return lengths;
+            }
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                if (counts[symbol] > 0) {
+                    counts[symbol] = Math.max(1, counts[symbol] >> 1);
+                }
+            }
+        }
+    }
+
+    // Depth of every used symbol in the Huffman tree of these counts.
+    private static byte[] treeDepths(long[] counts) {
+        byte[] lengths = new byte[SYMBOLS];
+        long[] weight = new long[2 * SYMBOLS];
+        int[] parent = new int[2 * SYMBOLS];
+        boolean[] merged = new boolean[2 * SYMBOLS];
+        int nodes = 0;
+        int[] leafOf = new int[SYMBOLS]; // Node number of every used symbol.
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            if (counts[symbol] > 0) {
+                leafOf[symbol] = nodes;
+                weight[nodes++] = counts[symbol];
+            } else {
+                leafOf[symbol] = -1;
+            }
+        }
+        if (nodes == 1) { // A single symbol still needs a 1-bit code.
+            for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+                if (leafOf[symbol] >= 0) {
+                    lengths[symbol] = 1;
+                }
+            }
+            return lengths;
+        }
+        int leaves = nodes;
+        for (int step = 1; step < leaves; step++) {
+            int first = lightest(weight, merged, nodes, -1);
+            int second = lightest(weight, merged, nodes, first);
+            merged[first] = true;
+            merged[second] = true;
+            weight[nodes] = weight[first] + weight[second];
+            parent[first] = nodes;
+            parent[second] = nodes;
+            nodes++;
+        }
+        int root = nodes - 1;
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            int depth = 0;
+            for (int node = leafOf[symbol]; node >= 0 && node != root; node = parent[node]) {
+                depth++;
+            }
+            lengths[symbol] = (byte) Math.min(depth, 127); // Anything over 15 is fixed by codeLengths anyway.
+        }
+        return lengths;
+    }
+
+    // The node with the smallest weight that is not merged yet (and is not 'skip').
+    private static int lightest(long[] weight, boolean[] merged, int nodes, int skip) {
+        int best = -1;
+        for (int node = 0; node < nodes; node++) {
+            if (!merged[node] && node != skip && (best < 0 || weight[node] < weight[best])) {
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    // Canonical codes: shorter codes first, and codes of the same length numbered in symbol order.
+    private static int[] canonicalCodes(byte[] lengths) {
+        int[] lengthCount = new int[MAX_CODE_LENGTH + 1];
+        for (byte length : lengths) {
+            if (length > 0) {
+                lengthCount[length]++;
+            }
+        }
+        int[] nextCode = new int[MAX_CODE_LENGTH + 2];
+        int code = 0;
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            code = (code + lengthCount[length - 1]) << 1;
+            nextCode[length] = code;
+        }
+        int[] codes = new int[SYMBOLS];
+        for (int symbol = 0; symbol < SYMBOLS; symbol++) {
+            int length = lengths[symbol];
+            if (length > 0) {
+                codes[symbol] = nextCode[length]++;
+            }
+        }
+        return codes;
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.Locale;
+
+// The file formats CustomImage.saveToFile can write. PNG and BMP are lossless, so an image that was compressed in
+// lossless mode (tolerance 0) stays identical to the original; JPEG adds its own lossy step on top.
+public enum ImageFormat {
+    PNG("png"),
+    BMP("bmp"),
+    JPEG("jpeg");
+
+    private final String formatName; // The name ImageIO uses to find a writer.
+
+    ImageFormat(String formatName) {
+        this.formatName = formatName;
+    }
+
+    public String getFormatName() {
+        return formatName;
+    }
+
+    // Pick the format from the file extension (".png", ".bmp", ".jpg"/".jpeg"). Anything else is saved as JPEG,
+    // which is what saveToFile always did before formats could be chosen.
+    public static ImageFormat fromPath(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".png")) {
+            return PNG;
+        }
+        if (lower.endsWith(".bmp")) {
+            return BMP;
+        }
+        return JPEG;
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+
+// Keeps ImageWriter objects so they can be reused between saves.
+//
+// ImageIO.write looks up a writer through the service registry and creates (and initializes) a new one on every call.
+// When thousands of images are exported, that setup is paid for every single image. Here a writer is borrowed from
+// the pool, used, reset() and given back, so each format only creates as many writers as there are threads saving at
+// the same time. The pool is thread-safe.
+public class ImageWriterPool {
+    private static final int MAX_IDLE_PER_FORMAT = 16; // Extra writers beyond this are disposed instead of kept.
+
+    private static final Map<ImageFormat, ConcurrentLinkedQueue<ImageWriter>> IDLE = new EnumMap<>(ImageFormat.class);
+
+    static {
+        for (ImageFormat format : ImageFormat.values()) {
+            IDLE.put(format, new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    private ImageWriterPool() { // Only static methods.
+    }
+
+    // Get a writer for 'format': a reused one if any is idle, otherwise a new one from ImageIO.
+    public static ImageWriter borrow(ImageFormat format) {
+        ImageWriter writer = IDLE.get(format).poll();
+        if (writer != null) {
+            return writer;
+        }
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format.getFormatName());
+        if (!writers.hasNext()) {
+            throw new IllegalStateException("ImageIO has no writer for " + format + ".");
+        }
+        return writers.next();
+    }
+
+    // Give a writer back after a successful save. It is reset so no output or settings leak into the next save.
+    public static void release(ImageFormat format, ImageWriter writer) {
+        writer.reset();
+        ConcurrentLinkedQueue<ImageWriter> idle = IDLE.get(format);
+        if (idle.size() < MAX_IDLE_PER_FORMAT) {
+            idle.offer(writer);
+        } else {
+            writer.dispose();
+        }
+    }
+
+    // Throw away a writer that failed in the middle of a save (its state is unknown).
+    public static void discard(ImageWriter writer) {
+        writer.dispose();
+    }
+}
@@ -0,0 +1,191 @@
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measures where the time goes in the pipeline fromFile -> analyze -> decompress -> verifyDecompression -> saveToFile
+// (and saveCompressed). Every stage is wrapped like this:
+//
+//   Instrumentation.Span span = Instrumentation.begin(Instrumentation.Stage.ANALYZE);
+//   ... the work ...
+//   Instrumentation.end(span, pixels, runs, bytes);
+//
+// and reports its wall time, pixels, runs, bytes read or written, and the bytes the thread allocated, to two places:
+//   - a StageEvent for JDK Flight Recorder, when a recording with that event is running;
+//   - in-process counters (LongAdder, so threads never fight over them), when they are turned on with setEnabled(true)
+//     or -Drle.instrumentation=true. report() prints them as a table.
+// When both are off, begin returns null and end returns at once: a couple of checks per stage, nothing allocated.
+public class Instrumentation {
+    public enum Stage {
+        FROM_FILE("fromFile"),
+        ANALYZE("analyze"),
+        DECOMPRESS("decompress"),
+        VERIFY("verify"),
+        SAVE("saveToFile"),
+        SAVE_COMPRESSED("saveCompressed");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    private static final int CALLS = 0, NANOS = 1, PIXELS = 2, RUNS = 3, BYTES = 4, ALLOCATED = 5;
+    private static final LongAdder[][] COUNTERS = new LongAdder[Stage.values().length][6];
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+    private static volatile boolean enabled = Boolean.getBoolean("rle.instrumentation");
+    // Only asked whether a recording wants StageEvents (that is decided per event type, not per object), so begin
+    // doesn't create an event unless one will really be recorded. Never begun or committed.
+    private static final StageEvent PROBE = new StageEvent();
+
+    static {
+        for (LongAdder[] stageCounters : COUNTERS) {
+            for (int i = 0; i < stageCounters.length; i++) {
+                stageCounters[i] = new LongAdder();
+            }
+        }
+    }
+
+    private Instrumentation() { // Only static methods.
+    }
+
+    // Turn the in-process counters on or off (JFR events only depend on the recording).
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Start measuring a stage. Returns null when nobody is listening.
+    public static Span begin(Stage stage) {
+        boolean recording = PROBE.isEnabled();
+        if (!recording && !enabled) {
+            return null;
+        }
+        StageEvent event = recording ? new StageEvent() : null;
+        Span span = new Span(stage, event, enabled);
+        if (event != null) {
+            event.begin();
+        }
+        return span;
+    }
+
+    // Finish a stage started with begin ('span' may be null). Use 0 for what the stage doesn't have.
+    public static void end(Span span, long pixels, long runs, long bytes) {
+        if (span == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - span.startNanos;
+        long allocated = span.startAllocated < 0 ? -1 : currentThreadAllocatedBytes() - span.startAllocated;
+        StageEvent event = span.event;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) { // Respects the recording's threshold setting.
+                event.stage = span.stage.getLabel();
+                event.pixels = pixels;
+                event.runs = runs;
+                event.bytes = bytes;
+                event.allocatedBytes = allocated;
+                event.commit();
+            }
+        }
+        if (span.counted) {
+            LongAdder[] counters = COUNTERS[span.stage.ordinal()];
+            counters[CALLS].increment();
+            counters[NANOS].add(nanos);
+            counters[PIXELS].add(pixels);
+            counters[RUNS].add(runs);
+            counters[BYTES].add(bytes);
+            if (allocated > 0) {
+                counters[ALLOCATED].add(allocated);
+            }
+        }
+    }
+
+    public static long getCalls(Stage stage) {
+        return COUNTERS[stage.ordinal()][CALLS].sum();
+    }
+
+    public static long getTotalNanos(Stage stage) {
+        return COUNTERS[stage.ordinal()][NANOS].sum();
+    }
+
+    public static long getPixels(Stage stage) {
+        return COUNTERS[stage.ordinal()][PIXELS].sum();
+    }
+
+    public static long getRuns(Stage stage) {
+        return COUNTERS[stage.ordinal()][RUNS].sum();
+    }
+
+    public static long getBytes(Stage stage) {
+        return COUNTERS[stage.ordinal()][BYTES].sum();
+    }
+
+    public static long getAllocatedBytes(Stage stage) {
+        return COUNTERS[stage.ordinal()][ALLOCATED].sum();
+    }
+
+    // Set every counter back to 0.
+    public static void reset() {
+        for (LongAdder[] stageCounters : COUNTERS) {
+            for (LongAdder counter : stageCounters) {
+                counter.reset();
+            }
+        }
+    }
+
+    // The counters as a table, one line per stage that ran at least once.
+    public static String report() {
+        StringBuilder table = new StringBuilder(512);
+        table.append(String.format(Locale.ROOT, "%-15s %6s %12s %14s %12s %14s %14s%n", "Stage", "Calls", "Total ms", "Pixels", "Runs", "Bytes", "Allocated"));
+        for (Stage stage : Stage.values()) {
+            long calls = getCalls(stage);
+            if (calls == 0) {
+                continue;
+            }
+            table.append(String.format(Locale.ROOT, "%-15s %6d %12.2f %14d %12d %14d %14d%n", stage.getLabel(), calls,
+                getTotalNanos(stage) / 1e6, getPixels(stage), getRuns(stage), getBytes(stage), getAllocatedBytes(stage)));
+        }
+        return table.toString();
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM can't tell.
+    private static long currentThreadAllocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    // One stage being measured.
+    public static final class Span {
+        private final Stage stage;
+        private final StageEvent event; // Null when no JFR recording wants it.
+        private final boolean counted; // Whether the counters were on when the stage started.
+        private final long startNanos;
+        private final long startAllocated;
+
+        private Span(Stage stage, StageEvent event, boolean counted) {
+            this.stage = stage;
+            this.event = event;
+            this.counted = counted;
+            this.startAllocated = currentThreadAllocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Opens an .rle file (see RLEFileWriter for the layout) by memory-mapping it instead of reading it into the heap.
+// The operating system loads the pages of the file only when they are touched, so opening even a multi-gigabyte file
+// is O(1) (only the header is read), and decoding copies the runs straight from the mapped pages into the pixels.
+//
+// Run records have a fixed size of 7 bytes (5 in palette mode, after the palette), so run number i always starts at
+// payloadOffset + i * recordSize. A single mapping
+// can't be bigger than 2 GB, so the payload is mapped in windows of WINDOW_RUNS records (never splitting a record),
+// and every window is only mapped the first time a run inside it is needed.
+public class MappedRLEFile implements Closeable {
+    private static final long WINDOW_RUNS = 1L << 27; // 134 million runs = 940 MB per window (670 MB in palette mode).
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int tolerance;
+    private final long runCount;
+    private final int[] palette; // Only for files in palette mode.
+    private final byte[] rowFilters; // Only for filtered files.
+    private final long payloadOffset; // Where the first run record starts.
+    private final int recordSize; // Bytes per run record.
+    private final MappedByteBuffer[] windows; // Lazily mapped parts of the payload (null until first used).
+
+    private MappedRLEFile(FileChannel channel, RLEFileReader.Header header, long runCount, int[] palette, byte[] rowFilters, long payloadOffset) {
+        this.channel = channel;
+        this.width = header.width;
+        this.height = header.height;
+        this.tolerance = header.tolerance;
+        this.runCount = runCount;
+        this.palette = palette;
+        this.rowFilters = rowFilters;
+        this.payloadOffset = payloadOffset;
+        this.recordSize = header.runRecordSize();
+        this.windows = new MappedByteBuffer[(int) ((runCount + WINDOW_RUNS - 1) / WINDOW_RUNS)];
+    }
+
+    // Open a file: read and validate the header only, the runs stay on disk until they are decoded.
+    public static MappedRLEFile open(String filePath) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < RLEFileWriter.HEADER_SIZE) {
+                throw new IOException("FORMAT ERROR: the .rle file is too small to contain a header.");
+            }
+            ByteBuffer headerBytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, RLEFileWriter.HEADER_SIZE);
+            RLEFileReader.Header header = RLEFileReader.Header.parse(headerBytes);
+            if (header.isEntropyCoded()) {
+                throw new IOException("ERROR: entropy-coded .rle files have runs of different sizes and can't be memory-mapped, use CompressedImage.loadCompressed.");
+            }
+
+            // In palette mode the palette sits between the header and the runs; it is small, so it is read right away.
+            int[] palette = null;
+            long payloadOffset = RLEFileWriter.HEADER_SIZE;
+            if (header.hasPalette()) {
+                if (fileSize < payloadOffset + 2) {
+                    throw new IOException("FORMAT ERROR: the .rle file ended too early.");
+                }
+                int paletteSize = RLEFileReader.Header.checkPaletteSize(channel.map(FileChannel.MapMode.READ_ONLY, payloadOffset, 2).getShort() & 0xFFFF);
+                if (fileSize < payloadOffset + 2 + 3L * paletteSize) {
+                    throw new IOException("FORMAT ERROR: the .rle file ended too early.");
+                }
+                ByteBuffer paletteBytes = channel.map(FileChannel.MapMode.READ_ONLY, payloadOffset + 2, 3L * paletteSize);
+                palette = new int[paletteSize];
+                for (int i = 0; i < paletteSize; i++) {
+                    palette[i] = Pixel.pack(paletteBytes.get(), paletteBytes.get(), paletteBytes.get());
+                }
+                payloadOffset += 2 + 3L * paletteSize;
+            }
+            byte[] rowFilters = null;
+            if (header.hasRowFilters()) {
+                if (fileSize < payloadOffset + header.height) {
+                    throw new IOException("FORMAT ERROR: the .rle file ended too early.");
+                }
+                rowFilters = new byte[header.height];
+                channel.map(FileChannel.MapMode.READ_ONLY, payloadOffset, header.height).get(rowFilters);
+                RLEFileReader.Header.checkRowFilters(rowFilters);
+                payloadOffset += header.height;
+            }
+
+            // The payload size tells us how many runs there are, even when the writer could not patch the count in.
+            long payloadRuns = (fileSize - payloadOffset) / header.runRecordSize();
+            long runCount = header.runCount == RLEFileWriter.UNKNOWN_RUN_COUNT ? payloadRuns : header.runCount;
+            if (runCount > payloadRuns) {
+                throw new IOException("FORMAT ERROR: the header promises " + runCount + " runs but the file only holds " + payloadRuns + ".");
+            }
+            return new MappedRLEFile(channel, header, runCount, palette, rowFilters, payloadOffset);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public int[] getPalette() { // A copy of the palette of a palette-mode file, or null.
+        return palette == null ? null : palette.clone();
+    }
+
+    public byte[] getRowFilters() { // A copy of the row filters of a filtered file, or null.
+        return rowFilters == null ? null : rowFilters.clone();
+    }
+
+    // Packed 0xRRGGBB color of run number 'run', read straight from the mapped file (a filter residual if the file
+    // is filtered).
+    public int getRunColor(long run) throws IOException {
+        ByteBuffer window = windowFor(run);
+        return colorAt(window, recordOffset(run), run);
+    }
+
+    // Length of run number 'run', read straight from the mapped file.
+    public int getRunLength(long run) throws IOException {
+        return windowFor(run).getInt(recordOffset(run) + recordSize - 4);
+    }
+
+    // Color of the record at 'at' in a window: 3 bytes of color, or 1 byte of palette index in palette mode.
+    private int colorAt(ByteBuffer window, int at, long run) throws IOException {
+        if (palette == null) {
+            return Pixel.pack(window.get(at), window.get(at + 1), window.get(at + 2));
+        }
+        int index = window.get(at) & 0xFF;
+        if (index >= palette.length) {
+            throw new IOException("FORMAT ERROR: run " + run + " uses palette index " + index + " but the palette has " + palette.length + " colors.");
+        }
+        return palette[index];
+    }
+
+    // Decode the whole file into a new image.
+    public CustomImage toImage() throws IOException {
+        CustomImage image = new CustomImage(width, height);
+        decodeInto(image.getPackedPixels(), 0);
+        return image;
+    }
+
+    // Decode every run into 'target' starting at 'offset', window by window. Nothing but the target pixels is allocated:
+    // each record is read with absolute gets on the mapped buffer and painted with one Arrays.fill. In a filtered file,
+    // every row is unfiltered as soon as its last run is painted.
+    public void decodeInto(int[] target, int offset) throws IOException {
+        long totalPixels = (long) width * height;
+        if (offset < 0 || target.length - offset < totalPixels) {
+            throw new IllegalArgumentException("The target buffer is too small for a " + width + " x " + height + " image.");
+        }
+        int position = offset;
+        int end = (int) (offset + totalPixels);
+        int unfilteredRows = 0;
+        for (long first = 0; first < runCount; first += WINDOW_RUNS) {
+            ByteBuffer window = windowFor(first);
+            int records = (int) Math.min(WINDOW_RUNS, runCount - first);
+            for (int at = 0, limit = records * recordSize; at < limit; at += recordSize) {
+                long run = first + at / recordSize;
+                int rgb = colorAt(window, at, run);
+                int length = window.getInt(at + recordSize - 4);
+                if (length <= 0 || length > end - position) {
+                    throw new IOException("FORMAT ERROR: run " + run + " has an invalid length (" + length + ").");
+                }
+                Arrays.fill(target, position, position + length, rgb);
+                position += length;
+                if (rowFilters != null) {
+                    unfilteredRows = RowFilter.unfilterRows(target, offset, width, height, rowFilters, unfilteredRows, position - offset);
+                }
+            }
+        }
+        if (position != end) {
+            throw new IOException("FORMAT ERROR: the runs only cover " + (position - offset) + " of " + totalPixels + " pixels.");
+        }
+    }
+
+    // Map (the first time) and return the window that holds run number 'run'.
+    private ByteBuffer windowFor(long run) throws IOException {
+        if (run < 0 || run >= runCount) {
+            throw new IndexOutOfBoundsException("Run " + run + " does not exist (the file has " + runCount + " runs).");
+        }
+        int index = (int) (run / WINDOW_RUNS);
+        MappedByteBuffer window = windows[index];
+        if (window == null) {
+            long first = index * WINDOW_RUNS;
+            long records = Math.min(WINDOW_RUNS, runCount - first);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, payloadOffset + first * recordSize, records * recordSize);
+            windows[index] = window;
+        }
+        return window;
+    }
+
+    // Position of a run's record inside its window.
+    private int recordOffset(long run) {
+        return (int) (run % WINDOW_RUNS) * recordSize;
+    }
+
+    // Closing the channel does not invalidate mappings that were already made; the JVM releases them when they are
+    // garbage collected.
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(windows, null);
+        channel.close();
+    }
+}
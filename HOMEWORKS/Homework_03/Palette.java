@@ -0,0 +1,270 @@
+import java.util.Arrays;
+
+// A table of at most 256 colors used by the palette mode of CompressedImage, so a run can store a 1-byte index
+// instead of a full 0xRRGGBB color.
+//
+// How the palette is built (Palette.build):
+//   1. EXACT: if the image has no more than 256 distinct colors, those colors ARE the palette and nothing is lost.
+//      The distinct colors are collected in a small hash table that gives up as soon as color number 257 shows up.
+//   2. MEDIAN CUT: otherwise the colors are quantized. Every pixel is counted in a histogram of 32 x 32 x 32 boxes
+//      (5 bits per channel), then the box of colors with the biggest (pixels x widest channel range) is cut in two at
+//      the median of its widest channel, again and again, until there are 256 boxes. Every box becomes one palette
+//      color: the average of the real pixels that fell in it. Two passes over the pixels, no matter the image size.
+public class Palette {
+    private static final int EMPTY = -1; // Never a packed color (colors only use 24 bits).
+    private static final int BITS = 5; // Histogram precision per channel for the median cut.
+    private static final int BINS = 1 << (3 * BITS);
+
+    private final int[] colors; // The palette itself.
+    private final boolean exact; // True if every pixel of the image is exactly one of the colors.
+
+    // Exact mode: hash table from packed color to index (open addressing, linear probing).
+    private int[] hashKeys;
+    private byte[] hashValues;
+
+    // Median cut mode: histogram bin of a color -> palette index (-1 until it is needed for a bin the image didn't use).
+    private short[] binToIndex;
+
+    private Palette(int[] colors, boolean exact) {
+        this.colors = colors;
+        this.exact = exact;
+    }
+
+    // Build the palette for these packed pixels with at most maxColors colors (1..256).
+    public static Palette build(int[] pixels, int maxColors) {
+        if (maxColors < 1 || maxColors > RunList.MAX_PALETTE_SIZE) {
+            throw new IllegalArgumentException("A palette must have between 1 and " + RunList.MAX_PALETTE_SIZE + " colors, not " + maxColors + ".");
+        }
+        Palette palette = exactPalette(pixels, maxColors);
+        return palette != null ? palette : medianCut(pixels, maxColors);
+    }
+
+    public int[] getColors() { // A copy of the palette colors.
+        return colors.clone();
+    }
+
+    public int size() {
+        return colors.length;
+    }
+
+    public boolean isExact() {
+        return exact;
+    }
+
+    // Palette index of a packed color: the color itself in exact mode, the color of its median cut box otherwise.
+    // Colors that were not in the image the palette was built from get the nearest palette color.
+    public int indexOf(int rgb) {
+        if (exact) {
+            int mask = hashKeys.length - 1;
+            for (int slot = hash(rgb) & mask; hashKeys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (hashKeys[slot] == rgb) {
+                    return hashValues[slot] & 0xFF;
+                }
+            }
+            return nearest(rgb);
+        }
+        int bin = binOf(rgb);
+        int index = binToIndex[bin];
+        if (index < 0) {
+            index = nearest(rgb);
+            binToIndex[bin] = (short) index;
+        }
+        return index;
+    }
+
+    // Palette index of the color closest to rgb (squared RGB distance). Only used for colors outside the image.
+    private int nearest(int rgb) {
+        int best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < colors.length; i++) {
+            int dr = Pixel.redOf(rgb) - Pixel.redOf(colors[i]);
+            int dg = Pixel.greenOf(rgb) - Pixel.greenOf(colors[i]);
+            int db = Pixel.blueOf(rgb) - Pixel.blueOf(colors[i]);
+            int distance = dr * dr + dg * dg + db * db;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // Collect the distinct colors, or return null as soon as there are more than maxColors of them.
+    private static Palette exactPalette(int[] pixels, int maxColors) {
+        int[] keys = new int[Integer.highestOneBit(maxColors) << 3]; // Keeps the table at most 25% full.
+        Arrays.fill(keys, EMPTY);
+        byte[] values = new byte[keys.length];
+        int[] found = new int[maxColors];
+        int count = 0;
+        int mask = keys.length - 1;
+        int previous = EMPTY;
+        for (int rgb : pixels) {
+            if (rgb == previous) {
+                continue; // Neighbour pixels are very often the same color, skip the hash lookup.
+            }
+            previous = rgb;
+            int slot = hash(rgb) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != rgb) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                if (count == maxColors) {
+                    return null; // Too many colors, the image needs quantizing.
+                }
+                keys[slot] = rgb;
+                values[slot] = (byte) count;
+                found[count++] = rgb;
+            }
+        }
+        Palette palette = new Palette(Arrays.copyOf(found, Math.max(1, count)), true);
+        palette.hashKeys = keys;
+        palette.hashValues = values;
+        return palette;
+    }
+
+    // Median cut quantizer over a 15-bit histogram (see the comment at the top of the class).
+    private static Palette medianCut(int[] pixels, int maxColors) {
+        // Pass 1: histogram of the bins, with the sums of the real channels to average them later.
+        int[] counts = new int[BINS];
+        long[] sumRed = new long[BINS];
+        long[] sumGreen = new long[BINS];
+        long[] sumBlue = new long[BINS];
+        for (int rgb : pixels) {
+            int bin = binOf(rgb);
+            counts[bin]++;
+            sumRed[bin] += Pixel.redOf(rgb);
+            sumGreen[bin] += Pixel.greenOf(rgb);
+            sumBlue[bin] += Pixel.blueOf(rgb);
+        }
+
+        // The used bins, in one array. Every box is a range [boxStart, boxEnd) of this array.
+        int used = 0;
+        int[] bins = new int[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            if (counts[bin] > 0) {
+                bins[used++] = bin;
+            }
+        }
+        int[] boxStart = new int[maxColors];
+        int[] boxEnd = new int[maxColors];
+        long[] boxPixels = new long[maxColors];
+        int[] boxRange = new int[maxColors]; // Range of the widest channel of every box (0 = can't be cut).
+        int[] boxChannel = new int[maxColors]; // Which channel that is (0 = red, 1 = green, 2 = blue).
+        boxEnd[0] = used;
+        boxPixels[0] = pixels.length;
+        measure(bins, 0, used, boxRange, boxChannel, 0);
+        int boxes = 1;
+        int[] sorted = new int[used]; // Scratch space for the counting sort.
+
+        while (boxes < maxColors) {
+            // Pick the box to cut: the one with the biggest pixels x range. Boxes with a single bin have range 0.
+            int chosen = -1;
+            long bestScore = 0;
+            for (int box = 0; box < boxes; box++) {
+                long score = boxPixels[box] * boxRange[box];
+                if (score > bestScore) {
+                    bestScore = score;
+                    chosen = box;
+                }
+            }
+            if (chosen < 0) {
+                break; // Every box is a single bin, cutting more can't add colors.
+            }
+            int chosenChannel = boxChannel[chosen];
+
+            // Sort the bins of the box by the widest channel (counting sort, the channel only has 32 values).
+            int start = boxStart[chosen];
+            int end = boxEnd[chosen];
+            int[] bucketStart = new int[(1 << BITS) + 1];
+            for (int i = start; i < end; i++) {
+                bucketStart[channelOfBin(bins[i], chosenChannel) + 1]++;
+            }
+            for (int value = 0; value < (1 << BITS); value++) {
+                bucketStart[value + 1] += bucketStart[value];
+            }
+            for (int i = start; i < end; i++) {
+                sorted[start + bucketStart[channelOfBin(bins[i], chosenChannel)]++] = bins[i];
+            }
+            System.arraycopy(sorted, start, bins, start, end - start);
+
+            // Cut at the median: the first bin where half of the box's pixels are behind us (both halves keep at least one bin).
+            long half = boxPixels[chosen] / 2;
+            long seen = 0;
+            int cut = start + 1;
+            for (int i = start; i < end - 1; i++) {
+                seen += counts[bins[i]];
+                cut = i + 1;
+                if (seen >= half) {
+                    break;
+                }
+            }
+            long leftPixels = 0;
+            for (int i = start; i < cut; i++) {
+                leftPixels += counts[bins[i]];
+            }
+            boxEnd[chosen] = cut;
+            boxStart[boxes] = cut;
+            boxEnd[boxes] = end;
+            boxPixels[boxes] = boxPixels[chosen] - leftPixels;
+            boxPixels[chosen] = leftPixels;
+            measure(bins, start, cut, boxRange, boxChannel, chosen);
+            measure(bins, cut, end, boxRange, boxChannel, boxes);
+            boxes++;
+        }
+
+        // Every box becomes one color: the average of the real pixels inside it.
+        int[] colors = new int[Math.max(1, boxes)];
+        short[] binToIndex = new short[BINS];
+        Arrays.fill(binToIndex, (short) -1);
+        for (int box = 0; box < boxes; box++) {
+            long red = 0, green = 0, blue = 0, total = 0;
+            for (int i = boxStart[box]; i < boxEnd[box]; i++) {
+                int bin = bins[i];
+                red += sumRed[bin];
+                green += sumGreen[bin];
+                blue += sumBlue[bin];
+                total += counts[bin];
+                binToIndex[bin] = (short) box;
+            }
+            if (total > 0) {
+                colors[box] = Pixel.pack((int) ((red + total / 2) / total), (int) ((green + total / 2) / total), (int) ((blue + total / 2) / total));
+            }
+        }
+        Palette palette = new Palette(colors, false);
+        palette.binToIndex = binToIndex;
+        return palette;
+    }
+
+    // Find the widest channel of the box bins[start..end) and store it (and its range) for that box.
+    private static void measure(int[] bins, int start, int end, int[] boxRange, int[] boxChannel, int box) {
+        boxRange[box] = 0;
+        boxChannel[box] = 0;
+        for (int channel = 0; channel < 3; channel++) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            for (int i = start; i < end; i++) {
+                int value = channelOfBin(bins[i], channel);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (end > start && max - min > boxRange[box]) {
+                boxRange[box] = max - min;
+                boxChannel[box] = channel;
+            }
+        }
+    }
+
+    // Histogram bin of a color: the top 5 bits of each channel, as RRRRRGGGGGBBBBB.
+    private static int binOf(int rgb) {
+        return ((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F);
+    }
+
+    // The 5-bit value of one channel (0 = red, 1 = green, 2 = blue) of a bin.
+    private static int channelOfBin(int bin, int channel) {
+        return (bin >> (BITS * (2 - channel))) & ((1 << BITS) - 1);
+    }
+
+    private static int hash(int rgb) {
+        return rgb * 0x9E3779B1 >>> 16; // Fibonacci hashing, spreads similar colors over the table.
+    }
+}
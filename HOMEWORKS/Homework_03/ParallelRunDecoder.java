@@ -0,0 +1,95 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Decompresses a run list on several threads.
+//
+// 1. A parallel prefix sum over the run lengths tells where every run ends in the image (RunList.cumulativeLengths).
+// 2. The output pixels are cut into ranges of the same size, and every range is painted independently on a
+//    ForkJoinPool: a binary search over the run ends finds the first run that touches the range, and then every run is
+//    painted with one Arrays.fill, clipped to the range. No two threads ever write the same pixel.
+// The work per range is a few bulk fills, so decoding is limited by how fast memory can be written.
+public class ParallelRunDecoder {
+    private static final int MIN_RANGE_PIXELS = 1 << 16; // Smaller ranges cost more in task overhead than they save.
+    private static final int RANGES_PER_THREAD = 4;
+
+    private ParallelRunDecoder() { // Only static methods.
+    }
+
+    // Paint 'runs' into 'target' (which must hold exactly the pixels the runs cover) using 'pool'.
+    public static void decode(RunList runs, int[] target, ForkJoinPool pool) {
+        int[] runEnds = runs.cumulativeLengths();
+        int totalPixels = runEnds.length == 0 ? 0 : runEnds[runEnds.length - 1];
+        if (totalPixels != target.length) {
+            throw new IllegalArgumentException("The runs cover " + totalPixels + " pixels but the image has " + target.length + ".");
+        }
+        int targetRanges = Math.max(1, pool.getParallelism() * RANGES_PER_THREAD);
+        int rangeSize = Math.max(MIN_RANGE_PIXELS, (target.length + targetRanges - 1) / targetRanges);
+        int ranges = Math.max(1, (target.length + rangeSize - 1) / rangeSize);
+        pool.invoke(new RangeTask(runs, runEnds, target, rangeSize, 0, ranges));
+    }
+
+    // Paint the ranges [fromRange, toRange) in parallel.
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable; these tasks are never serialized.
+
+        private final RunList runs;
+        private final int[] runEnds;
+        private final int[] target;
+        private final int rangeSize;
+        private final int fromRange;
+        private final int toRange;
+
+        RangeTask(RunList runs, int[] runEnds, int[] target, int rangeSize, int fromRange, int toRange) {
+            this.runs = runs;
+            this.runEnds = runEnds;
+            this.target = target;
+            this.rangeSize = rangeSize;
+            this.fromRange = fromRange;
+            this.toRange = toRange;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRange - fromRange > 1) { // More than one range: split the work in two halves.
+                int middle = (fromRange + toRange) >>> 1;
+                invokeAll(new RangeTask(runs, runEnds, target, rangeSize, fromRange, middle),
+                          new RangeTask(runs, runEnds, target, rangeSize, middle, toRange));
+                return;
+            }
+            int start = (int) Math.min((long) fromRange * rangeSize, target.length);
+            int end = (int) Math.min((long) start + rangeSize, target.length);
+            paint(runs, runEnds, target, start, end);
+        }
+    }
+
+    // Paint the pixels [start, end) of the image: find the run under 'start', then fill run after run, clipped to 'end'.
+    static void paint(RunList runs, int[] runEnds, int[] target, int start, int end) {
+        if (start >= end) {
+            return;
+        }
+        int run = firstRunEndingAfter(runEnds, start);
+        int position = start;
+        while (position < end) {
+            int runEnd = Math.min(runEnds[run], end);
+            Arrays.fill(target, position, runEnd, runs.getColor(run));
+            position = runEnd;
+            run++;
+        }
+    }
+
+    // Binary search: index of the run that contains the pixel 'pixel' (the first run whose end is after it).
+    static int firstRunEndingAfter(int[] runEnds, int pixel) {
+        int low = 0;
+        int high = runEnds.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (runEnds[middle] > pixel) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Compresses one image on several threads and still produces EXACTLY the runs of the single-threaded analyze,
+// in lossless and in lossy mode.
+//
+// 1. The image is cut into bands of whole rows, and every band is encoded on its own by a RunEncoder, in parallel on
+//    a ForkJoinPool (BandTask splits the list of bands in halves until one band is left).
+// 2. The bands are stitched together in order. The problem is the sequence that is still open at the end of a band:
+//    in the sequential encoding it continues into the next band with ITS color as the anchor, which the band's own
+//    encoding didn't know. So the stitcher keeps extending that sequence over the next band's pixels until it breaks,
+//    then checks if the new sequence starts exactly where one of the band's own runs starts. From that point both
+//    encodings have the same anchor at the same pixel, so they are identical and the rest of the band's runs are copied
+//    as they are. In lossless mode this happens at the first run boundary; in lossy mode usually after one or two runs.
+public class ParallelRunEncoder {
+    private static final int MIN_BAND_PIXELS = 1 << 16; // Smaller bands cost more in task overhead than they save.
+    private static final int BANDS_PER_THREAD = 4; // A few bands per thread so a slow band doesn't leave threads idle.
+
+    private ParallelRunEncoder() { // Only static methods.
+    }
+
+    // Encode the packed pixels of a width x height image on 'pool' and return the runs.
+    public static RunList encode(int[] pixels, int width, int height, int tolerance, ForkJoinPool pool) {
+        int targetBands = Math.max(1, pool.getParallelism() * BANDS_PER_THREAD);
+        int rowsPerBand = Math.max(1, (height + targetBands - 1) / targetBands);
+        rowsPerBand = Math.max(rowsPerBand, (MIN_BAND_PIXELS + Math.max(1, width) - 1) / Math.max(1, width));
+        return encode(pixels, width, height, tolerance, pool, rowsPerBand);
+    }
+
+    // Same as above with an explicit band height (the result does not depend on it).
+    static RunList encode(int[] pixels, int width, int height, int tolerance, ForkJoinPool pool, int rowsPerBand) {
+        int bands = Math.max(1, (height + rowsPerBand - 1) / rowsPerBand);
+        RunList[] bandRuns = new RunList[bands];
+        int[] bandStarts = new int[bands + 1]; // First pixel of every band (plus the end of the image).
+        for (int band = 0; band <= bands; band++) {
+            bandStarts[band] = Math.min(band * rowsPerBand, height) * width;
+        }
+
+        pool.invoke(new BandTask(pixels, tolerance, bandStarts, bandRuns, 0, bands));
+        return stitch(pixels, tolerance, bandStarts, bandRuns);
+    }
+
+    // Encode the bands [fromBand, toBand) in parallel.
+    private static class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable; these tasks are never serialized.
+
+        private final int[] pixels;
+        private final int tolerance;
+        private final int[] bandStarts;
+        private final RunList[] bandRuns;
+        private final int fromBand;
+        private final int toBand;
+
+        BandTask(int[] pixels, int tolerance, int[] bandStarts, RunList[] bandRuns, int fromBand, int toBand) {
+            this.pixels = pixels;
+            this.tolerance = tolerance;
+            this.bandStarts = bandStarts;
+            this.bandRuns = bandRuns;
+            this.fromBand = fromBand;
+            this.toBand = toBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBand - fromBand > 1) { // More than one band: split the work in two halves.
+                int middle = (fromBand + toBand) >>> 1;
+                invokeAll(new BandTask(pixels, tolerance, bandStarts, bandRuns, fromBand, middle),
+                          new BandTask(pixels, tolerance, bandStarts, bandRuns, middle, toBand));
+                return;
+            }
+            RunList runs = new RunList();
+            RunEncoder encoder = new RunEncoder(tolerance);
+            encoder.encode(pixels, bandStarts[fromBand], bandStarts[fromBand + 1], runs);
+            encoder.finish(runs);
+            bandRuns[fromBand] = runs;
+        }
+    }
+
+    // Join the runs of all bands into the runs the sequential encoder would have produced (see the class comment).
+    private static RunList stitch(int[] pixels, int tolerance, int[] bandStarts, RunList[] bandRuns) {
+        int total = 0;
+        for (RunList runs : bandRuns) {
+            total += runs.size();
+        }
+        RunList out = new RunList(total);
+
+        // The first band is exactly the sequential encoding of its pixels. Its last run stays "open" (kept apart).
+        RunList first = bandRuns[0];
+        if (first.size() == 0) {
+            return out; // Empty image.
+        }
+        out.addAll(first, 0, first.size() - 1);
+        int openColor = first.getColor(first.size() - 1);
+        int openLength = first.getLength(first.size() - 1);
+
+        for (int band = 1; band < bandRuns.length; band++) {
+            RunList runs = bandRuns[band];
+            int position = bandStarts[band];
+            int end = bandStarts[band + 1];
+            int run = 0; // The band's own run that starts at or after 'position'.
+            int runStart = position;
+
+            while (true) {
+                // Keep extending the open sequence while the pixels are similar to its anchor color.
+                int broken = RunScanner.best().scan(pixels, position, end, openColor, tolerance);
+                openLength += broken - position;
+                position = broken;
+                if (position == end) {
+                    break; // The whole band belongs to the open sequence, which continues into the next band.
+                }
+
+                // The open sequence is broken at 'position'; a new one starts there with that pixel as its anchor.
+                out.add(openColor, openLength);
+                while (runStart < position) { // Skip the band's runs that start before this point.
+                    runStart += runs.getLength(run);
+                    run++;
+                }
+                if (runStart == position) {
+                    // Same start, same anchor: from here on the band's own runs are the sequential ones.
+                    out.addAll(runs, run, runs.size() - 1);
+                    openColor = runs.getColor(runs.size() - 1);
+                    openLength = runs.getLength(runs.size() - 1);
+                    break;
+                }
+                openColor = pixels[position]; // Not in sync yet: keep encoding the pixels ourselves.
+                openLength = 1;
+                position++;
+            }
+        }
+
+        out.add(openColor, openLength); // Close the last sequence of the image.
+        out.trimToSize();
+        return out;
+    }
+}
@@ -28,8 +28,27 @@ public class Pixel{ // Create a Pixel class (does not extends CompressedImage be
         this.blue = blue; // Set the blue value of the pixel to the provided value
     }
 
-    
-    
+    // Helpers to work with "packed" colors: a single int with the layout 0xRRGGBB (the same layout BufferedImage.getRGB uses,
+    // without the alpha byte). CustomImage stores its pixels like this, so these are static and never create Pixel objects.
+    public static int pack(int red, int green, int blue) { // Combine the three channels into one packed int.
+        return ((red & 0xFF) << 16) | ((green & 0xFF) << 8) | (blue & 0xFF);
+    }
+
+    public static int redOf(int rgb) { // Extract the red channel from a packed color.
+        return (rgb >> 16) & 0xFF;
+    }
+
+    public static int greenOf(int rgb) { // Extract the green channel from a packed color.
+        return (rgb >> 8) & 0xFF;
+    }
+
+    public static int blueOf(int rgb) { // Extract the blue channel from a packed color.
+        return rgb & 0xFF;
+    }
+
+    public int toRGB() { // Return this pixel as a packed 0xRRGGBB color.
+        return pack(getRed(), getGreen(), getBlue());
+    }
 }
 
 
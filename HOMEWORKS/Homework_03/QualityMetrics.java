@@ -0,0 +1,247 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Measures how close a decompressed image is to the original, in ONE parallel pass over the packed pixels:
+//   - exact matches, and pixels that are not exact but within the tolerance in every channel;
+//   - MAE (mean absolute error) per channel and overall, and the biggest error in any channel;
+//   - MSE and PSNR (peak signal-to-noise ratio, in dB: higher is better, infinite for identical images);
+//   - SSIM (structural similarity, 1 = identical), on the luma of 8 x 8 windows, averaged over all windows.
+//
+// The image is cut into bands of rows (always a multiple of 8 rows, so the SSIM windows never cross two bands) that
+// are measured in parallel on a ForkJoinPool, and the results of the bands are added together. Every counter is a
+// long, so even gigapixel images can't overflow them.
+//
+// The bands can also DECODE their rows right before measuring them (see CompressedImage.decompressAndMeasure), so
+// decompressing and verifying is a single pass over memory, while the rows are still in the cache.
+public class QualityMetrics {
+    private static final int WINDOW = 8; // SSIM window size.
+    private static final int MIN_BAND_ROWS = 64; // Must be a multiple of WINDOW.
+    private static final int BANDS_PER_THREAD = 4;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255); // SSIM stabilizing constants (standard values).
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private final int tolerance;
+    private long pixelCount;
+    private long exactMatches;
+    private long similarPixels; // Not exact, but within the tolerance in every channel.
+    private final long[] channelErrorSums = new long[3]; // Red, green, blue.
+    private long squaredErrorSum;
+    private int maxError;
+    private double ssimSum;
+    private long ssimWindows;
+
+    private QualityMetrics(int tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    // Compare two images of the same size on the common ForkJoinPool.
+    public static QualityMetrics compare(CustomImage original, CustomImage decoded, int tolerance) {
+        if (original.getWidth() != decoded.getWidth() || original.getHeight() != decoded.getHeight()) {
+            throw new IllegalArgumentException("The images have different sizes: " + original.getWidth() + "x" + original.getHeight()
+                + " and " + decoded.getWidth() + "x" + decoded.getHeight() + ".");
+        }
+        return compare(original.getPackedPixels(), decoded.getPackedPixels(), original.getWidth(), original.getHeight(), tolerance, ForkJoinPool.commonPool());
+    }
+
+    // Compare two packed row-major buffers of width x height pixels.
+    public static QualityMetrics compare(int[] original, int[] decoded, int width, int height, int tolerance, ForkJoinPool pool) {
+        return pool.invoke(new BandTask(null, null, original, decoded, width, tolerance, bandRows(height, pool), 0, height));
+    }
+
+    // Paint 'runs' into 'target' and compare it with 'original' in the same pass (every band is decoded and then
+    // measured by the same task).
+    static QualityMetrics decodeAndCompare(RunList runs, int[] original, int[] target, int width, int height, int tolerance, ForkJoinPool pool) {
+        int[] runEnds = runs.cumulativeLengths();
+        int totalPixels = runEnds.length == 0 ? 0 : runEnds[runEnds.length - 1];
+        if (totalPixels != target.length || original.length != target.length) {
+            throw new IllegalArgumentException("The runs cover " + totalPixels + " pixels but the images have " + original.length + " and " + target.length + ".");
+        }
+        return pool.invoke(new BandTask(runs, runEnds, original, target, width, tolerance, bandRows(height, pool), 0, height));
+    }
+
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    public long getPixelCount() {
+        return pixelCount;
+    }
+
+    public long getExactMatches() {
+        return exactMatches;
+    }
+
+    public long getSimilarPixels() { // Within the tolerance in every channel, but not exact.
+        return similarPixels;
+    }
+
+    public long getOutsideTolerance() {
+        return pixelCount - exactMatches - similarPixels;
+    }
+
+    public int getMaxError() { // Biggest difference in any channel of any pixel (0..255).
+        return maxError;
+    }
+
+    public double getMeanAbsoluteError() { // Average over the three channels.
+        return pixelCount == 0 ? 0 : (double) (channelErrorSums[0] + channelErrorSums[1] + channelErrorSums[2]) / (3.0 * pixelCount);
+    }
+
+    public double getChannelMeanAbsoluteError(int channel) { // 0 = red, 1 = green, 2 = blue.
+        return pixelCount == 0 ? 0 : (double) channelErrorSums[channel] / pixelCount;
+    }
+
+    public double getMeanSquaredError() {
+        return pixelCount == 0 ? 0 : (double) squaredErrorSum / (3.0 * pixelCount);
+    }
+
+    public double getPSNR() { // In dB. Infinite when the images are identical.
+        double mse = getMeanSquaredError();
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+
+    public double getSSIM() {
+        return ssimWindows == 0 ? 1 : ssimSum / ssimWindows;
+    }
+
+    // How many rows every band gets: enough bands to keep every thread busy, never less than MIN_BAND_ROWS.
+    private static int bandRows(int height, ForkJoinPool pool) {
+        int bands = Math.max(1, pool.getParallelism() * BANDS_PER_THREAD);
+        int rows = (height + bands - 1) / bands;
+        rows = (rows + WINDOW - 1) / WINDOW * WINDOW;
+        return Math.max(MIN_BAND_ROWS, rows);
+    }
+
+    // Measure the rows [fromRow, toRow) (fromRow is a multiple of WINDOW). The SSIM windows of every strip of 8 rows are
+    // accumulated side by side while the pixels are read, so this is a single pass too.
+    private void measureRows(int[] original, int[] decoded, int width, int fromRow, int toRow) {
+        int windowsPerRow = (width + WINDOW - 1) / WINDOW;
+        long[] sumX = new long[windowsPerRow];
+        long[] sumY = new long[windowsPerRow];
+        long[] sumXX = new long[windowsPerRow];
+        long[] sumYY = new long[windowsPerRow];
+        long[] sumXY = new long[windowsPerRow];
+        long redErrors = 0, greenErrors = 0, blueErrors = 0, squaredErrors = 0, exact = 0, similar = 0;
+        int maximum = 0;
+
+        for (int stripStart = fromRow; stripStart < toRow; stripStart += WINDOW) {
+            int stripEnd = Math.min(stripStart + WINDOW, toRow);
+            for (int y = stripStart; y < stripEnd; y++) {
+                int rowStart = y * width;
+                for (int x = 0; x < width; x++) {
+                    int a = original[rowStart + x];
+                    int b = decoded[rowStart + x];
+                    int lumaA = ColorOps.luma(a); // Brightness, 0..255.
+                    int lumaB = a == b ? lumaA : ColorOps.luma(b);
+                    int window = x / WINDOW;
+                    sumX[window] += lumaA;
+                    sumY[window] += lumaB;
+                    sumXX[window] += lumaA * lumaA;
+                    sumYY[window] += lumaB * lumaB;
+                    sumXY[window] += lumaA * lumaB;
+                    if (a == b) {
+                        exact++;
+                        continue;
+                    }
+                    int redDiff = Math.abs(Pixel.redOf(a) - Pixel.redOf(b));
+                    int greenDiff = Math.abs(Pixel.greenOf(a) - Pixel.greenOf(b));
+                    int blueDiff = Math.abs(Pixel.blueOf(a) - Pixel.blueOf(b));
+                    redErrors += redDiff;
+                    greenErrors += greenDiff;
+                    blueErrors += blueDiff;
+                    squaredErrors += redDiff * redDiff + greenDiff * greenDiff + blueDiff * blueDiff;
+                    int worst = Math.max(redDiff, Math.max(greenDiff, blueDiff));
+                    maximum = Math.max(maximum, worst);
+                    if (worst <= tolerance) {
+                        similar++;
+                    }
+                }
+            }
+            // The strip is done: turn the sums of every window into its SSIM.
+            int rows = stripEnd - stripStart;
+            for (int window = 0; window < windowsPerRow; window++) {
+                int columns = Math.min(WINDOW, width - window * WINDOW);
+                double n = (double) rows * columns;
+                double meanX = sumX[window] / n;
+                double meanY = sumY[window] / n;
+                double varianceX = sumXX[window] / n - meanX * meanX;
+                double varianceY = sumYY[window] / n - meanY * meanY;
+                double covariance = sumXY[window] / n - meanX * meanY;
+                ssimSum += ((2 * meanX * meanY + C1) * (2 * covariance + C2))
+                         / ((meanX * meanX + meanY * meanY + C1) * (varianceX + varianceY + C2));
+                ssimWindows++;
+                sumX[window] = sumY[window] = sumXX[window] = sumYY[window] = sumXY[window] = 0;
+            }
+        }
+
+        pixelCount += (long) (toRow - fromRow) * width;
+        exactMatches += exact;
+        similarPixels += similar;
+        channelErrorSums[0] += redErrors;
+        channelErrorSums[1] += greenErrors;
+        channelErrorSums[2] += blueErrors;
+        squaredErrorSum += squaredErrors;
+        maxError = Math.max(maxError, maximum);
+    }
+
+    // Add the results of another band.
+    private void add(QualityMetrics other) {
+        pixelCount += other.pixelCount;
+        exactMatches += other.exactMatches;
+        similarPixels += other.similarPixels;
+        for (int channel = 0; channel < 3; channel++) {
+            channelErrorSums[channel] += other.channelErrorSums[channel];
+        }
+        squaredErrorSum += other.squaredErrorSum;
+        maxError = Math.max(maxError, other.maxError);
+        ssimSum += other.ssimSum;
+        ssimWindows += other.ssimWindows;
+    }
+
+    // Measure (and, when runs is not null, first decode) the rows [fromRow, toRow), splitting them in halves on
+    // multiples of WINDOW rows until a band is small enough.
+    private static class BandTask extends RecursiveTask<QualityMetrics> {
+        private static final long serialVersionUID = 1L; // ForkJoinTask is Serializable; these tasks are never serialized.
+
+        private final RunList runs;
+        private final int[] runEnds;
+        private final int[] original;
+        private final int[] decoded;
+        private final int width;
+        private final int tolerance;
+        private final int bandRows;
+        private final int fromRow;
+        private final int toRow;
+
+        BandTask(RunList runs, int[] runEnds, int[] original, int[] decoded, int width, int tolerance, int bandRows, int fromRow, int toRow) {
+            this.runs = runs;
+            this.runEnds = runEnds;
+            this.original = original;
+            this.decoded = decoded;
+            this.width = width;
+            this.tolerance = tolerance;
+            this.bandRows = bandRows;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+        }
+
+        @Override
+        protected QualityMetrics compute() {
+            if (toRow - fromRow > bandRows) {
+                int middle = fromRow + ((toRow - fromRow) / 2 + WINDOW - 1) / WINDOW * WINDOW;
+                BandTask top = new BandTask(runs, runEnds, original, decoded, width, tolerance, bandRows, fromRow, middle);
+                BandTask bottom = new BandTask(runs, runEnds, original, decoded, width, tolerance, bandRows, middle, toRow);
+                top.fork();
+                QualityMetrics result = bottom.compute();
+                result.add(top.join());
+                return result;
+            }
+            if (runs != null) {
+                ParallelRunDecoder.paint(runs, runEnds, decoded, fromRow * width, toRow * width);
+            }
+            QualityMetrics result = new QualityMetrics(tolerance);
+            result.measureRows(original, decoded, width, fromRow, toRow);
+            return result;
+        }
+    }
+}
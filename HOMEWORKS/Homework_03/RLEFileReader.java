@@ -0,0 +1,336 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+// Reads the binary ".rle" files produced by RLEFileWriter (see that class for the file layout).
+// The runs are decoded while they are read, straight into the packed pixels of a CustomImage, through a small fixed
+// buffer, so the whole run list is never held in memory.
+public class RLEFileReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean headerRead = false;
+    private int width;
+    private int height;
+    private int tolerance;
+    private long runCount;
+    private int[] palette; // Only for files in palette mode.
+    private byte[] rowFilters; // Only for filtered files.
+
+    // Entropy-coded files only (see RLEFileWriter.writeEntropyCoded): the decode tables of the color symbols (3, or 1
+    // in palette mode) and of the run length bytes, plus the bits read ahead from the buffer.
+    private char[][] colorTables;
+    private char[] lengthTable;
+    private long bitBuffer;
+    private int bitCount;
+    private int paddingBits; // Zero bits added after the end of the file so the last codes can be peeked.
+
+    private int recordColor; // Color (or palette index in palette mode) of the last record read by readRecord.
+
+    public RLEFileReader(InputStream in) {
+        this(Channels.newChannel(in));
+    }
+
+    public RLEFileReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip(); // Start with an empty buffer (nothing read yet).
+    }
+
+    // Read and validate the header. Called automatically by the other read methods if needed.
+    public void readHeader() throws IOException {
+        if (headerRead) {
+            return;
+        }
+        require(RLEFileWriter.HEADER_SIZE);
+        Header header = Header.parse(buffer);
+        width = header.width;
+        height = header.height;
+        tolerance = header.tolerance;
+        runCount = header.runCount;
+        if (header.hasPalette()) {
+            require(2);
+            int paletteSize = Header.checkPaletteSize(buffer.getShort() & 0xFFFF);
+            require(3 * paletteSize);
+            palette = new int[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = Pixel.pack(buffer.get(), buffer.get(), buffer.get());
+            }
+        }
+        if (header.hasRowFilters()) {
+            rowFilters = new byte[height];
+            for (int offset = 0; offset < height; ) {
+                require(1);
+                int count = Math.min(buffer.remaining(), height - offset);
+                buffer.get(rowFilters, offset, count);
+                offset += count;
+            }
+            Header.checkRowFilters(rowFilters);
+        }
+        if (header.isEntropyCoded()) {
+            int tables = palette != null ? 2 : 4;
+            char[][] decodeTables = new char[tables][];
+            for (int t = 0; t < tables; t++) {
+                require(HuffmanCode.SYMBOLS / 2);
+                byte[] packed = new byte[HuffmanCode.SYMBOLS / 2];
+                buffer.get(packed);
+                try {
+                    decodeTables[t] = HuffmanCode.fromLengths(HuffmanCode.unpackLengths(packed)).decodeTable();
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("FORMAT ERROR: invalid Huffman table (" + e.getMessage() + ")");
+                }
+            }
+            colorTables = Arrays.copyOf(decodeTables, tables - 1);
+            lengthTable = decodeTables[tables - 1];
+        }
+        headerRead = true;
+    }
+
+    // The fields of an .rle header. Shared with MappedRLEFile so both readers validate files the same way.
+    static class Header {
+        int width;
+        int height;
+        int tolerance;
+        int flags;
+        long runCount;
+
+        boolean hasPalette() { // The runs are palette indices (the palette follows the header).
+            return (flags & RLEFileWriter.FLAG_PALETTE) != 0;
+        }
+
+        boolean isEntropyCoded() { // The runs are a Huffman-coded bit stream instead of fixed-size records.
+            return (flags & RLEFileWriter.FLAG_ENTROPY) != 0;
+        }
+
+        boolean hasRowFilters() { // The runs are filter residuals (one filter byte per row follows the header/palette).
+            return (flags & RLEFileWriter.FLAG_FILTERED) != 0;
+        }
+
+        static void checkRowFilters(byte[] rowFilters) throws IOException {
+            for (int row = 0; row < rowFilters.length; row++) {
+                if (rowFilters[row] < 0 || rowFilters[row] >= RowFilter.FILTER_COUNT) {
+                    throw new IOException("FORMAT ERROR: row " + row + " uses the unknown filter " + rowFilters[row] + ".");
+                }
+            }
+        }
+
+        // Size in bytes of one run record in this file.
+        int runRecordSize() {
+            return hasPalette() ? RLEFileWriter.PALETTE_RUN_RECORD_SIZE : RLEFileWriter.RUN_RECORD_SIZE;
+        }
+
+        static int checkPaletteSize(int paletteSize) throws IOException {
+            if (paletteSize < 1 || paletteSize > RunList.MAX_PALETTE_SIZE) {
+                throw new IOException("FORMAT ERROR: invalid palette size " + paletteSize + ".");
+            }
+            return paletteSize;
+        }
+
+        // Parse and validate a header starting at the current position of the buffer (HEADER_SIZE bytes are consumed).
+        static Header parse(ByteBuffer source) throws IOException {
+            byte[] magic = new byte[4];
+            source.get(magic);
+            if (!Arrays.equals(magic, RLEFileWriter.MAGIC)) {
+                throw new IOException("FORMAT ERROR: this is not an .rle file created by CompressedImage.");
+            }
+            int version = source.get() & 0xFF;
+            if (version != RLEFileWriter.VERSION) {
+                throw new IOException("FORMAT ERROR: unsupported .rle version " + version + ".");
+            }
+            int flags = source.get() & 0xFF;
+            if ((flags & ~(RLEFileWriter.FLAG_PALETTE | RLEFileWriter.FLAG_FILTERED | RLEFileWriter.FLAG_ENTROPY)) != 0) {
+                throw new IOException("FORMAT ERROR: unsupported .rle flags " + flags + ".");
+            }
+            source.getShort(); // Reserved.
+            Header header = new Header();
+            header.flags = flags;
+            header.width = source.getInt();
+            header.height = source.getInt();
+            header.tolerance = source.getInt();
+            header.runCount = source.getLong();
+            if (header.width < 0 || header.height < 0 || (long) header.width * header.height > Integer.MAX_VALUE) {
+                throw new IOException("FORMAT ERROR: invalid image dimensions " + header.width + " x " + header.height + ".");
+            }
+            return header;
+        }
+    }
+
+    public int getWidth() throws IOException {
+        readHeader();
+        return width;
+    }
+
+    public int getHeight() throws IOException {
+        readHeader();
+        return height;
+    }
+
+    public int getTolerance() throws IOException {
+        readHeader();
+        return tolerance;
+    }
+
+    // Number of runs in the file, or RLEFileWriter.UNKNOWN_RUN_COUNT if the writer could not patch it in.
+    public long getRunCount() throws IOException {
+        readHeader();
+        return runCount;
+    }
+
+    // The palette of a palette-mode file (a copy), or null.
+    public int[] getPalette() throws IOException {
+        readHeader();
+        return palette == null ? null : palette.clone();
+    }
+
+    // The filter of every row of a filtered file (a copy), or null.
+    public byte[] getRowFilters() throws IOException {
+        readHeader();
+        return rowFilters == null ? null : rowFilters.clone();
+    }
+
+    // Decode the whole file into a new image. Every run is painted with one Arrays.fill as soon as it is read
+    // (and, in a filtered file, every row is unfiltered as soon as its last run is painted).
+    public CustomImage readImage() throws IOException {
+        readHeader();
+        CustomImage image = new CustomImage(width, height);
+        int[] data = image.getPackedPixels();
+        int position = 0;
+        int unfilteredRows = 0;
+        long runs = 0;
+
+        // When the run count is unknown, the file simply ends once every pixel has been painted.
+        while (position < data.length) {
+            int length = readRecord(runs);
+            int rgb = palette != null ? palette[recordColor] : recordColor;
+            if (length <= 0 || length > data.length - position) {
+                throw new IOException("FORMAT ERROR: run " + runs + " has an invalid length (" + length + ").");
+            }
+            Arrays.fill(data, position, position + length, rgb);
+            position += length;
+            runs++;
+            if (rowFilters != null) {
+                unfilteredRows = RowFilter.unfilterRows(data, 0, width, height, rowFilters, unfilteredRows, position);
+            }
+        }
+
+        if (runCount != RLEFileWriter.UNKNOWN_RUN_COUNT && runs != runCount) {
+            throw new IOException("FORMAT ERROR: expected " + runCount + " runs but the pixels were complete after " + runs + ".");
+        }
+        return image;
+    }
+
+    // Read the runs back into memory as a CompressedImage (for when we want the compressed form, not the pixels).
+    public CompressedImage readCompressed() throws IOException {
+        readHeader();
+        int capacity = runCount > 0 && runCount < Integer.MAX_VALUE ? (int) runCount : 64;
+        RunList runs = palette != null ? RunList.indexed(palette, capacity) : new RunList(capacity);
+        long totalPixels = (long) width * height;
+        long position = 0;
+        while (position < totalPixels) {
+            int length = readRecord(runs.size());
+            if (length <= 0 || length > totalPixels - position) {
+                throw new IOException("FORMAT ERROR: run " + runs.size() + " has an invalid length (" + length + ").");
+            }
+            if (palette != null) {
+                runs.addIndexed(recordColor, length);
+            } else {
+                runs.add(recordColor, length);
+            }
+            position += length;
+        }
+        if (runCount != RLEFileWriter.UNKNOWN_RUN_COUNT && runs.size() != runCount) {
+            throw new IOException("FORMAT ERROR: expected " + runCount + " runs but the pixels were complete after " + runs.size() + ".");
+        }
+        return new CompressedImage(tolerance, width, height, runs, rowFilters);
+    }
+
+    // Read the next run: its color (or palette index) goes to recordColor and its length is returned.
+    private int readRecord(long run) throws IOException {
+        int length;
+        if (colorTables != null) { // Entropy-coded: Huffman symbols, then the varint length.
+            if (palette != null) {
+                recordColor = readSymbol(colorTables[0]);
+            } else {
+                recordColor = Pixel.pack(readSymbol(colorTables[0]), readSymbol(colorTables[1]), readSymbol(colorTables[2]));
+            }
+            length = 0;
+            for (int shift = 0; ; shift += 7) {
+                int part = readSymbol(lengthTable);
+                if (shift > 28) {
+                    throw new IOException("FORMAT ERROR: run " + run + " has a length that doesn't fit in 32 bits.");
+                }
+                length |= (part & 0x7F) << shift;
+                if (part < 0x80) {
+                    break;
+                }
+            }
+        } else if (palette != null) {
+            require(RLEFileWriter.PALETTE_RUN_RECORD_SIZE);
+            recordColor = buffer.get() & 0xFF;
+            length = buffer.getInt();
+        } else {
+            require(RLEFileWriter.RUN_RECORD_SIZE);
+            recordColor = Pixel.pack(buffer.get(), buffer.get(), buffer.get());
+            length = buffer.getInt();
+        }
+        if (palette != null && recordColor >= palette.length) {
+            throw new IOException("FORMAT ERROR: run " + run + " uses palette index " + recordColor + " but the palette has " + palette.length + " colors.");
+        }
+        return length;
+    }
+
+    // Decode one Huffman symbol: peek the next 15 bits, and the decode table gives the symbol and its real code length.
+    private int readSymbol(char[] table) throws IOException {
+        while (bitCount < HuffmanCode.MAX_CODE_LENGTH) {
+            if (!buffer.hasRemaining() && !fillBuffer()) {
+                paddingBits += 8; // Past the end of the file: peek zeros, but they must never be consumed.
+                bitBuffer <<= 8;
+            } else {
+                bitBuffer = (bitBuffer << 8) | (buffer.get() & 0xFF);
+            }
+            bitCount += 8;
+        }
+        int entry = table[(int) (bitBuffer >>> (bitCount - HuffmanCode.MAX_CODE_LENGTH)) & ((1 << HuffmanCode.MAX_CODE_LENGTH) - 1)];
+        int length = entry & 0x0F;
+        if (length == 0) {
+            throw new IOException("FORMAT ERROR: invalid Huffman code in the run stream.");
+        }
+        bitCount -= length;
+        if (bitCount < paddingBits) {
+            throw new EOFException("FORMAT ERROR: the .rle file ended too early.");
+        }
+        return entry >> 4;
+    }
+
+    // Read more bytes from the channel into the buffer. Returns false at the end of the file.
+    private boolean fillBuffer() throws IOException {
+        buffer.compact();
+        int read = channel.read(buffer);
+        buffer.flip();
+        return read > 0;
+    }
+
+    // Make sure at least 'bytes' bytes are waiting in the buffer, reading more from the channel if needed.
+    private void require(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("FORMAT ERROR: the .rle file ended too early.");
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
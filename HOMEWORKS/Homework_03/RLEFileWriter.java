@@ -0,0 +1,319 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+// Writes compressed images to disk in our own binary ".rle" format, one run at a time.
+//
+// FILE LAYOUT (all numbers are big-endian):
+//   offset  size  field
+//   0       4     magic bytes "RLEI" (to recognize our files)
+//   4       1     format version (currently 1)
+//   5       1     flags (0 = plain runs, FLAG_PALETTE = palette runs, FLAG_FILTERED = filter residuals, others reserved)
+//   6       2     reserved (0)
+//   8       4     image width in pixels
+//   12      4     image height in pixels
+//   16      4     color tolerance used to compress
+//   20      8     number of runs, or -1 if it was unknown when the header was written
+//   28      ...   the runs: 3 bytes of color (R, G, B) + 4 bytes of run length = 7 bytes per run
+//
+// With FLAG_PALETTE (see CompressedImage.analyzePalette) the runs point into a palette written right after the header:
+//   28      2     number of palette colors N (1..256)
+//   30      3*N   the palette colors (R, G, B)
+//   30+3N   ...   the runs: 1 byte of palette index + 4 bytes of run length = 5 bytes per run
+//
+// With FLAG_FILTERED (see CompressedImage.analyzeFiltered) the header (and the palette, if any) is followed by one byte
+// per image row with the RowFilter used on that row, and then the runs, whose colors are filter residuals.
+//
+// With FLAG_ENTROPY (see writeEntropyCoded) the fixed-size run records are replaced by a Huffman-coded bit stream:
+//   - the code lengths of the Huffman tables (see HuffmanCode), 128 bytes per table: red, green, blue (or the palette
+//     index in palette mode), and then the table of the run length bytes;
+//   - then, for every run, the Huffman codes of its red, green and blue (or palette index), followed by its length as
+//     a varint (7 bits per byte, high bit set on every byte but the last), every varint byte Huffman-coded too.
+//   Bits are written most significant first and the last byte is padded with zeros.
+//
+// The writer only keeps a small fixed buffer, so it never needs the whole run list in memory.
+public class RLEFileWriter implements Closeable {
+    public static final byte[] MAGIC = {'R', 'L', 'E', 'I'};
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 28;
+    public static final int RUN_RECORD_SIZE = 7;
+    public static final int PALETTE_RUN_RECORD_SIZE = 5;
+    public static final int FLAG_PALETTE = 0x01;
+    public static final int FLAG_FILTERED = 0x02;
+    public static final int FLAG_ENTROPY = 0x04;
+    public static final int RUN_COUNT_OFFSET = 20; // Where the run count lives, so it can be patched after streaming.
+    public static final long UNKNOWN_RUN_COUNT = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024; // Runs are collected here and written in 64 KB blocks.
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private boolean headerWritten = false;
+    private long declaredRunCount; // The run count written in the header.
+    private long runsWritten = 0; // How many runs went through writeRun so far.
+    private int[] palette; // Set in palette mode: runs are written as indices into it.
+    private boolean entropyCoded; // Set by writeEntropyCoded: the flags byte must announce it.
+    private long bitBuffer; // Bits waiting to be written to the buffer (entropy coding only).
+    private int bitCount;
+
+    public RLEFileWriter(OutputStream out) {
+        this(Channels.newChannel(out));
+    }
+
+    public RLEFileWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    // Write the header. Use UNKNOWN_RUN_COUNT when the runs are produced while streaming: if the channel is seekable
+    // (a FileChannel for example) the real count is patched in when the writer is closed.
+    public void writeHeader(int width, int height, int tolerance, long runCount) throws IOException {
+        writeHeader(width, height, tolerance, runCount, null);
+    }
+
+    // Same, for a file in palette mode when 'palette' is not null: the palette is written after the header and the
+    // runs must then be written with writeIndexedRun (or writeRuns with a palette-mode RunList).
+    public void writeHeader(int width, int height, int tolerance, long runCount, int[] palette) throws IOException {
+        writeHeader(width, height, tolerance, runCount, palette, null);
+    }
+
+    // Same, also writing the filter of every row when 'rowFilters' is not null (the runs are then filter residuals).
+    public void writeHeader(int width, int height, int tolerance, long runCount, int[] palette, byte[] rowFilters) throws IOException {
+        if (headerWritten) {
+            throw new IllegalStateException("The header was already written.");
+        }
+        if (palette != null && (palette.length == 0 || palette.length > RunList.MAX_PALETTE_SIZE)) {
+            throw new IllegalArgumentException("A palette must have between 1 and " + RunList.MAX_PALETTE_SIZE + " colors, not " + palette.length + ".");
+        }
+        if (rowFilters != null && rowFilters.length != height) {
+            throw new IllegalArgumentException("There must be one row filter per row (" + height + "), not " + rowFilters.length + ".");
+        }
+        int flags = (palette != null ? FLAG_PALETTE : 0) | (rowFilters != null ? FLAG_FILTERED : 0) | (entropyCoded ? FLAG_ENTROPY : 0);
+        buffer.put(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) flags);
+        buffer.putShort((short) 0); // Reserved.
+        buffer.putInt(width);
+        buffer.putInt(height);
+        buffer.putInt(tolerance);
+        buffer.putLong(runCount);
+        if (palette != null) {
+            buffer.putShort((short) palette.length);
+            for (int rgb : palette) {
+                if (buffer.remaining() < 3) {
+                    flushBuffer();
+                }
+                buffer.put((byte) Pixel.redOf(rgb));
+                buffer.put((byte) Pixel.greenOf(rgb));
+                buffer.put((byte) Pixel.blueOf(rgb));
+            }
+            this.palette = palette.clone();
+        }
+        if (rowFilters != null) {
+            for (int offset = 0; offset < rowFilters.length; ) {
+                if (!buffer.hasRemaining()) {
+                    flushBuffer();
+                }
+                int count = Math.min(buffer.remaining(), rowFilters.length - offset);
+                buffer.put(rowFilters, offset, count);
+                offset += count;
+            }
+        }
+        this.declaredRunCount = runCount;
+        this.headerWritten = true;
+    }
+
+    // Append one run (packed 0xRRGGBB color + how many pixels it covers).
+    public void writeRun(int rgb, int length) throws IOException {
+        if (!headerWritten) {
+            throw new IllegalStateException("writeHeader must be called before writing runs.");
+        }
+        if (entropyCoded) {
+            throw new IllegalStateException("An entropy-coded file is written in one go by writeEntropyCoded.");
+        }
+        if (palette != null) {
+            throw new IllegalStateException("This file is in palette mode, use writeIndexedRun.");
+        }
+        if (buffer.remaining() < RUN_RECORD_SIZE) {
+            flushBuffer();
+        }
+        buffer.put((byte) Pixel.redOf(rgb));
+        buffer.put((byte) Pixel.greenOf(rgb));
+        buffer.put((byte) Pixel.blueOf(rgb));
+        buffer.putInt(length);
+        runsWritten++;
+    }
+
+    // Append one run of a palette-mode file (index into the palette written with the header + run length).
+    public void writeIndexedRun(int paletteIndex, int length) throws IOException {
+        if (!headerWritten) {
+            throw new IllegalStateException("writeHeader must be called before writing runs.");
+        }
+        if (entropyCoded) {
+            throw new IllegalStateException("An entropy-coded file is written in one go by writeEntropyCoded.");
+        }
+        if (palette == null) {
+            throw new IllegalStateException("This file has no palette, use writeRun.");
+        }
+        if (paletteIndex < 0 || paletteIndex >= palette.length) {
+            throw new IndexOutOfBoundsException("Palette index " + paletteIndex + " does not exist (the palette has " + palette.length + " colors).");
+        }
+        if (buffer.remaining() < PALETTE_RUN_RECORD_SIZE) {
+            flushBuffer();
+        }
+        buffer.put((byte) paletteIndex);
+        buffer.putInt(length);
+        runsWritten++;
+    }
+
+    // Write every run of a run list (used when the whole compressed image is already in memory).
+    // A palette-mode list is written as indices if the header declared the same palette, otherwise as plain colors.
+    public void writeRuns(RunList runs) throws IOException {
+        if (palette != null) {
+            if (!runs.isIndexed() || !Arrays.equals(palette, runs.getPalette())) {
+                throw new IllegalStateException("The runs don't use the palette that was written in the header.");
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                writeIndexedRun(runs.getPaletteIndex(i), runs.getLength(i));
+            }
+            return;
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            writeRun(runs.getColor(i), runs.getLength(i));
+        }
+    }
+
+    // Write a whole compressed image with the entropy-coded payload (FLAG_ENTROPY, see the layout at the top). The run
+    // list must be complete because the Huffman tables are built from the counts of all its symbols first, so this
+    // replaces writeHeader + writeRuns. On our test images the file is 2 to 5 times smaller than with fixed records.
+    public void writeEntropyCoded(int width, int height, int tolerance, RunList runs, byte[] rowFilters) throws IOException {
+        entropyCoded = true;
+        int[] filePalette = runs.isIndexed() ? runs.getPalette() : null;
+        writeHeader(width, height, tolerance, runs.size(), filePalette, rowFilters);
+        this.palette = null; // Palette runs go through the entropy coder, not writeIndexedRun.
+
+        // Pass 1: count every symbol.
+        int colorTables = runs.isIndexed() ? 1 : 3;
+        long[][] counts = new long[colorTables + 1][HuffmanCode.SYMBOLS];
+        long[] lengthCounts = counts[colorTables];
+        for (int i = 0; i < runs.size(); i++) {
+            if (runs.isIndexed()) {
+                counts[0][runs.getPaletteIndex(i)]++;
+            } else {
+                int rgb = runs.getColor(i);
+                counts[0][Pixel.redOf(rgb)]++;
+                counts[1][Pixel.greenOf(rgb)]++;
+                counts[2][Pixel.blueOf(rgb)]++;
+            }
+            for (int length = runs.getLength(i); ; length >>>= 7) {
+                if (length < 0x80) {
+                    lengthCounts[length]++;
+                    break;
+                }
+                lengthCounts[(length & 0x7F) | 0x80]++;
+            }
+        }
+        HuffmanCode[] tables = new HuffmanCode[counts.length];
+        for (int t = 0; t < tables.length; t++) {
+            tables[t] = HuffmanCode.fromFrequencies(counts[t]);
+            if (buffer.remaining() < HuffmanCode.SYMBOLS / 2) {
+                flushBuffer();
+            }
+            buffer.put(tables[t].packedLengths());
+        }
+
+        // Pass 2: the bit stream.
+        HuffmanCode lengthTable = tables[colorTables];
+        for (int i = 0; i < runs.size(); i++) {
+            if (runs.isIndexed()) {
+                writeSymbol(tables[0], runs.getPaletteIndex(i));
+            } else {
+                int rgb = runs.getColor(i);
+                writeSymbol(tables[0], Pixel.redOf(rgb));
+                writeSymbol(tables[1], Pixel.greenOf(rgb));
+                writeSymbol(tables[2], Pixel.blueOf(rgb));
+            }
+            for (int length = runs.getLength(i); ; length >>>= 7) {
+                if (length < 0x80) {
+                    writeSymbol(lengthTable, length);
+                    break;
+                }
+                writeSymbol(lengthTable, (length & 0x7F) | 0x80);
+            }
+            runsWritten++;
+        }
+        if (bitCount > 0) { // Pad the last byte with zeros.
+            writeBits(0, 8 - bitCount);
+        }
+    }
+
+    private void writeSymbol(HuffmanCode table, int symbol) throws IOException {
+        writeBits(table.getCode(symbol), table.getLength(symbol));
+    }
+
+    // Append the lowest 'count' bits of 'bits', most significant first.
+    private void writeBits(int bits, int count) throws IOException {
+        bitBuffer = (bitBuffer << count) | bits;
+        bitCount += count;
+        while (bitCount >= 8) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            bitCount -= 8;
+            buffer.put((byte) (bitBuffer >>> bitCount));
+        }
+    }
+
+    public long getRunsWritten() {
+        return runsWritten;
+    }
+
+    // Size in bytes of a file with this many runs (useful to know the compressed size without writing anything).
+    public static long fileSize(long runCount) {
+        return HEADER_SIZE + runCount * RUN_RECORD_SIZE;
+    }
+
+    // Size in bytes of a palette-mode file with this many runs and palette colors.
+    public static long fileSize(long runCount, int paletteSize) {
+        return HEADER_SIZE + 2 + 3L * paletteSize + runCount * PALETTE_RUN_RECORD_SIZE;
+    }
+
+    // Push everything that is still in the buffer to the channel.
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            // If the header said "unknown", fill in the real number of runs when we are able to go back in the file.
+            if (headerWritten && declaredRunCount == UNKNOWN_RUN_COUNT && channel instanceof SeekableByteChannel) {
+                SeekableByteChannel seekable = (SeekableByteChannel) channel;
+                long end = seekable.position();
+                ByteBuffer count = ByteBuffer.allocate(8).putLong(0, runsWritten);
+                seekable.position(RUN_COUNT_OFFSET);
+                while (count.hasRemaining()) {
+                    seekable.write(count);
+                }
+                seekable.position(end);
+            } else if (headerWritten && declaredRunCount != UNKNOWN_RUN_COUNT && declaredRunCount != runsWritten) {
+                throw new IOException("FORMAT ERROR: the header promised " + declaredRunCount + " runs but " + runsWritten + " were written.");
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
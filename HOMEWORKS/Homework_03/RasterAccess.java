@@ -0,0 +1,98 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+// Fast copies between a BufferedImage and our packed 0xRRGGBB arrays.
+//
+// BufferedImage.getRGB/setRGB convert every pixel through the image's ColorModel, which makes image I/O the slowest
+// step of the pipeline. For the common image types the pixels are already stored in a simple layout inside the
+// raster's DataBuffer, so they can be copied directly:
+// - TYPE_INT_RGB / TYPE_INT_ARGB: one int per pixel, already 0x??RRGGBB -> a System.arraycopy per row (+ dropping alpha).
+// - TYPE_3BYTE_BGR / TYPE_4BYTE_ABGR (what the JPEG/PNG readers usually return): interleaved bytes -> one tight loop
+//   per row that packs the three color bytes.
+// Every other type (indexed, grayscale, premultiplied, custom color spaces...) uses getRGB/setRGB, which is always right.
+public class RasterAccess {
+    private RasterAccess() { // Only static methods.
+    }
+
+    // Copy the first 'rows' rows (of 'width' pixels) of 'image' into 'dest' starting at 'destOffset', row after row.
+    public static void readPixels(BufferedImage image, int width, int rows, int[] dest, int destOffset) {
+        Raster raster = image.getRaster();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                if (raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+                    readIntPixels(raster, width, rows, dest, destOffset);
+                    return;
+                }
+                break;
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+                if (raster.getSampleModel() instanceof ComponentSampleModel) {
+                    readBytePixels(raster, width, rows, dest, destOffset);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+
+        // Slow but universal path: let the ColorModel convert every pixel, one whole row per call.
+        for (int y = 0; y < rows; y++) {
+            int rowStart = destOffset + y * width;
+            image.getRGB(0, y, width, 1, dest, rowStart, width);
+            for (int i = rowStart; i < rowStart + width; i++) {
+                dest[i] &= 0xFFFFFF; // Drop the alpha byte that getRGB adds.
+            }
+        }
+    }
+
+    // Build a TYPE_INT_RGB image from packed pixels with ONE array copy into its DataBuffer (same layout, no conversion).
+    public static BufferedImage toBufferedImage(int[] pixels, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] target = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels, 0, target, 0, width * height);
+        return image;
+    }
+
+    // One int per pixel: copy whole rows, then drop the top byte (alpha, or unused in TYPE_INT_RGB).
+    private static void readIntPixels(Raster raster, int width, int rows, int[] dest, int destOffset) {
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] source = buffer.getData();
+        int stride = model.getScanlineStride();
+        // Where pixel (0, 0) of this raster is inside the buffer (not 0 when the raster is a child of a bigger one).
+        int origin = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX();
+        for (int y = 0; y < rows; y++) {
+            int rowStart = destOffset + y * width;
+            System.arraycopy(source, origin + y * stride, dest, rowStart, width);
+            for (int i = rowStart; i < rowStart + width; i++) {
+                dest[i] &= 0xFFFFFF;
+            }
+        }
+    }
+
+    // Interleaved bytes: the band offsets say where red, green and blue are inside every pixel (BGR: 2, 1, 0).
+    private static void readBytePixels(Raster raster, int width, int rows, int[] dest, int destOffset) {
+        ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] source = buffer.getData();
+        int pixelStride = model.getPixelStride();
+        int stride = model.getScanlineStride();
+        int[] bandOffsets = model.getBandOffsets();
+        int redOffset = bandOffsets[0];
+        int greenOffset = bandOffsets[1];
+        int blueOffset = bandOffsets[2];
+        int origin = buffer.getOffset() - raster.getSampleModelTranslateY() * stride - raster.getSampleModelTranslateX() * pixelStride;
+        for (int y = 0; y < rows; y++) {
+            int from = origin + y * stride;
+            int to = destOffset + y * width;
+            for (int x = 0; x < width; x++, from += pixelStride) {
+                dest[to + x] = Pixel.pack(source[from + redOffset], source[from + greenOffset], source[from + blueOffset]);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+// Predictive filters applied before RLE (see CompressedImage.analyzeFiltered), the same idea as the filters of PNG.
+//
+// RLE only finds colors that repeat from left to right, so a smooth gradient or a pattern that repeats from one row to
+// the next gives a new run on almost every pixel. A filter PREDICTS every pixel from its already known neighbours
+// (left = a, up = b, up-left = c) and RLE stores the RESIDUAL: the difference between the real pixel and the prediction,
+// per channel, modulo 256. On a vertical gradient the "Up" prediction is almost right everywhere, so the residuals are
+// all the same and become a few long runs.
+//
+//   NONE    prediction 0 (the residual is the pixel itself)
+//   SUB     a
+//   UP      b
+//   AVERAGE (a + b) / 2
+//   PAETH   whichever of a, b, c is closest to a + b - c
+//
+// One filter is picked for every row by trial-encoding the row with each of them (see chooseFilter) and stored with
+// the runs (1 byte per row). That is up to five extra encodes of every row (the 'limit' early exit only cuts the
+// hopeless ones short), so encoding costs about 6-7x a plain RunEncoder pass. Decoding applies one filter per row.
+//
+// LOSSY MODE: the residuals are not compared with each other. Instead the encoder works "closed loop": it keeps the
+// pixels exactly as the DECODER will rebuild them, and a run continues while prediction + the run's residual stays
+// within the tolerance of the real pixel. So the error of every pixel is still at most the tolerance, it never
+// accumulates from row to row.
+public class RowFilter {
+    public static final int NONE = 0;
+    public static final int SUB = 1;
+    public static final int UP = 2;
+    public static final int AVERAGE = 3;
+    public static final int PAETH = 4;
+    public static final int FILTER_COUNT = 5;
+
+    private RowFilter() {
+    }
+
+    // Encode the packed pixels (width x height, row-major) into runs of residuals. The filter picked for every row is
+    // written to rowFilters (one entry per row).
+    public static RunList encode(int[] pixels, int width, int height, int tolerance, byte[] rowFilters) {
+        RunList runs = new RunList();
+        int[] previousRow = new int[width]; // Rebuilt pixels of the row above (all 0 above the first row).
+        int[] currentRow = new int[width]; // Rebuilt pixels of the row being encoded.
+        int[] trialRow = new int[width]; // Scratch row for chooseFilter.
+        int[] state = new int[2]; // The active sequence: {residual, length so far} (length 0 = none yet).
+
+        for (int y = 0; y < height; y++) {
+            int filter = chooseFilter(pixels, width, y, tolerance, previousRow, trialRow, state);
+            rowFilters[y] = (byte) filter;
+            encodeRow(pixels, y * width, width, filter, tolerance, previousRow, currentRow, state, runs, Integer.MAX_VALUE);
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        if (state[1] > 0) {
+            runs.add(state[0], state[1]);
+        }
+        runs.trimToSize();
+        return runs;
+    }
+
+    // Encode one row with 'filter', closed loop: continue the active sequence in 'state' while prediction + its residual
+    // stays within the tolerance of the real pixel, otherwise start a new sequence with the exact residual. The rebuilt
+    // pixels go to currentRow and the closed sequences to 'out' (null = only count them). Returns how many sequences
+    // were started in this row, stopping early once that reaches 'limit'.
+    private static int encodeRow(int[] pixels, int rowStart, int width, int filter, int tolerance, int[] previousRow,
+                                 int[] currentRow, int[] state, RunList out, int limit) {
+        int anchor = state[0];
+        int actualStreak = state[1];
+        int started = 0;
+        for (int x = 0; x < width; x++) {
+            int left = x > 0 ? currentRow[x - 1] : 0;
+            int upLeft = x > 0 ? previousRow[x - 1] : 0;
+            int prediction = predict(filter, left, previousRow[x], upLeft);
+            int original = pixels[rowStart + x];
+
+            if (actualStreak > 0) {
+                int candidate = addResidual(prediction, anchor); // What the decoder would rebuild if the run continues.
+                if (RunEncoder.similar(candidate, original, tolerance)) {
+                    actualStreak++;
+                    currentRow[x] = candidate;
+                    continue;
+                }
+                if (out != null) {
+                    out.add(anchor, actualStreak); // The sequence is broken, save it.
+                }
+            }
+            if (++started >= limit) {
+                return started; // A trial that is already worse than the best filter so far.
+            }
+            anchor = subtractPrediction(original, prediction); // New sequence, starting with an exact pixel.
+            actualStreak = 1;
+            currentRow[x] = original;
+        }
+        state[0] = anchor;
+        state[1] = actualStreak;
+        return started;
+    }
+
+    // Turn row 'row' of 'data' (which starts at data[offset]) from residuals back into pixels, in place. The rows above
+    // must already be pixels again, so the rows are undone from top to bottom, each one as soon as its runs are painted.
+    public static void unfilterRow(int[] data, int offset, int width, int row, int filter) {
+        int rowStart = offset + row * width;
+        int upStart = rowStart - width;
+        for (int x = 0; x < width; x++) {
+            int left = x > 0 ? data[rowStart + x - 1] : 0;
+            int up = row > 0 ? data[upStart + x] : 0;
+            int upLeft = row > 0 && x > 0 ? data[upStart + x - 1] : 0;
+            data[rowStart + x] = addResidual(predict(filter, left, up, upLeft), data[rowStart + x]);
+        }
+    }
+
+    // Undo every row from 'fromRow' on whose pixels are all painted (the first paintedPixels pixels after 'offset' are
+    // painted). Returns the first row that is still not undone. Decoders call this after every run they paint, so the
+    // filters are undone in the same streaming pass, while the rows are still in the cache.
+    public static int unfilterRows(int[] data, int offset, int width, int height, byte[] rowFilters, int fromRow, long paintedPixels) {
+        int row = fromRow;
+        while (row < height && (long) (row + 1) * width <= paintedPixels) {
+            unfilterRow(data, offset, width, row, rowFilters[row]);
+            row++;
+        }
+        return row;
+    }
+
+    // Pick the filter of a row by trying them: every filter encodes the row with the real closed-loop encoder (starting
+    // from the sequence that is open at the end of the row above), and the one that starts the fewest sequences wins.
+    // Ties keep the simpler filter, so a row where no prediction helps stays NONE. Trials stop as soon as they are
+    // worse than the best one so far.
+    static int chooseFilter(int[] pixels, int width, int row, int tolerance, int[] previousRow, int[] trialRow, int[] state) {
+        int rowStart = row * width;
+        int best = NONE;
+        int bestRuns = Integer.MAX_VALUE;
+        int[] trialState = new int[2];
+        for (int filter = 0; filter < FILTER_COUNT; filter++) {
+            if (row == 0 && (filter == UP || filter == PAETH)) {
+                continue; // Without a row above these are the same as NONE and SUB.
+            }
+            trialState[0] = state[0];
+            trialState[1] = state[1];
+            int runs = encodeRow(pixels, rowStart, width, filter, tolerance, previousRow, trialRow, trialState, null, bestRuns);
+            if (runs < bestRuns) {
+                bestRuns = runs;
+                best = filter;
+            }
+        }
+        return best;
+    }
+
+    // Prediction of a pixel from its left, up and up-left neighbours, channel by channel.
+    static int predict(int filter, int left, int up, int upLeft) {
+        switch (filter) {
+            case NONE:
+                return 0;
+            case SUB:
+                return left;
+            case UP:
+                return up;
+            case AVERAGE:
+                return Pixel.pack((Pixel.redOf(left) + Pixel.redOf(up)) >> 1,
+                                  (Pixel.greenOf(left) + Pixel.greenOf(up)) >> 1,
+                                  (Pixel.blueOf(left) + Pixel.blueOf(up)) >> 1);
+            case PAETH:
+                return Pixel.pack(paeth(Pixel.redOf(left), Pixel.redOf(up), Pixel.redOf(upLeft)),
+                                  paeth(Pixel.greenOf(left), Pixel.greenOf(up), Pixel.greenOf(upLeft)),
+                                  paeth(Pixel.blueOf(left), Pixel.blueOf(up), Pixel.blueOf(upLeft)));
+            default:
+                throw new IllegalArgumentException("Unknown row filter " + filter + ".");
+        }
+    }
+
+    // The Paeth predictor of one channel (from the PNG specification).
+    private static int paeth(int a, int b, int c) {
+        int estimate = a + b - c;
+        int distanceA = Math.abs(estimate - a);
+        int distanceB = Math.abs(estimate - b);
+        int distanceC = Math.abs(estimate - c);
+        if (distanceA <= distanceB && distanceA <= distanceC) {
+            return a;
+        }
+        return distanceB <= distanceC ? b : c;
+    }
+
+    // pixel - prediction, per channel, modulo 256.
+    static int subtractPrediction(int rgb, int prediction) {
+        return Pixel.pack(Pixel.redOf(rgb) - Pixel.redOf(prediction),
+                          Pixel.greenOf(rgb) - Pixel.greenOf(prediction),
+                          Pixel.blueOf(rgb) - Pixel.blueOf(prediction));
+    }
+
+    // prediction + residual, per channel, modulo 256 (the inverse of subtractPrediction).
+    static int addResidual(int prediction, int residual) {
+        return Pixel.pack(Pixel.redOf(prediction) + Pixel.redOf(residual),
+                          Pixel.greenOf(prediction) + Pixel.greenOf(residual),
+                          Pixel.blueOf(prediction) + Pixel.blueOf(residual));
+    }
+}
@@ -0,0 +1,95 @@
+// The RLE state machine used by CompressedImage.analyze, pulled out into its own class so the pixels don't have to
+// arrive all at once. Pixels are fed in any number of pieces (a whole image, one strip of rows, one row...) and the
+// sequence that is still open at the end of a piece is carried over to the next one, so feeding an image in pieces
+// produces exactly the same runs as feeding it in one go.
+public class RunEncoder {
+    private final int colorTolerance; // Same meaning as in CompressedImage: 0 = lossless, more = lossy.
+    private int earlierColor; // The color of the sequence currently being counted (the "active" color in the RLE sequence).
+    private int actualStreak = 0; // How many pixels the active sequence has so far (0 = no sequence started yet).
+    private final RunScanner scanner = RunScanner.best(); // Finds where sequences break (SIMD when available).
+    private CompressionStats stats; // When not null, told about every sequence that is closed.
+
+    public RunEncoder(int colorTolerance) {
+        this.colorTolerance = colorTolerance;
+    }
+
+    // Report every closed sequence to 'stats' too (null = don't), so statistics cost no extra pass.
+    public void setStats(CompressionStats stats) {
+        this.stats = stats;
+    }
+
+    // Feed the packed pixels pixels[from..to) in reading order. Every sequence that gets broken is added to 'out';
+    // the last one stays open because the next piece may continue it.
+    public void encode(int[] pixels, int from, int to, RunList out) {
+        int index = from;
+        if (actualStreak == 0 && index < to) { // At the very first pixel there is nothing to compare with yet.
+            earlierColor = pixels[index]; // Use it to start the first sequence.
+            actualStreak = 1; // Start the counter of repeated pixels at 1.
+            index++;
+        }
+
+        while (index < to) { 
+            // Find where the active sequence breaks: every pixel before 'end' is similar to earlierColor.
+            // The scanner compares many pixels at once (see RunScanner), instead of one comparison per loop iteration.
+            int end = scanner.scan(pixels, index, to, earlierColor, colorTolerance);
+            actualStreak += end - index; // All of those pixels continue the sequence.
+            index = end;
+
+            if (index < to) { 
+                // The pixel at 'index' is different, the sequence (streak) is broken. So two things need to be done:
+                // 1. Save the sequence (before it was broken) in the run list.
+                out.add(earlierColor, actualStreak); 
+                if (stats != null) {
+                    stats.addRun(earlierColor, actualStreak);
+                }
+                
+                // 2. Reset and create a NEW sequence. New color and reset the count to 1 again.
+                earlierColor = pixels[index]; // Update earlierColor to the new current color.
+                actualStreak = 1; // Reset repetition count to 1 for the new pixel sequence.
+                index++;
+            }
+        }
+    }
+
+    // After the last pixel, the last sequence is still in memory but hasn't been added to the list yet because there is nothing
+    // to compare with the last pixel if the next one is out of bounds (I hate that error). This saves it and resets the encoder.
+    public void finish(RunList out) {
+        if (actualStreak > 0) {
+            out.add(earlierColor, actualStreak);
+            if (stats != null) {
+                stats.addRun(earlierColor, actualStreak);
+            }
+        }
+        actualStreak = 0;
+    }
+
+    // To make the comparison of pixels more organized and reusable, this helper method takes two packed colors, 
+    // compares their RGB values, and returns true/false if they are "similar enough".
+    // 
+    // LOSSY COMPRESSION LOGIC:
+    // Instead of requiring exact matches (255,0,0) == (255,0,0), we now allow similar colors to be treated as the same.
+    // For example, with tolerance=20: RGB(255,0,0) and RGB(251,3,0) are considered the same color.
+    // This creates longer sequences, resulting in better compression, at the cost of some image quality.
+    public static boolean similar(int rgb1, int rgb2, int colorTolerance) {
+        // If tolerance is 0, use exact matching (lossless compression). Both colors are packed, so one int comparison is enough.
+        if (colorTolerance == 0) {
+            return rgb1 == rgb2;
+        }
+        
+        // For lossy compression, calculate the absolute difference for each color channel.
+        // If ALL three channels are within the tolerance, consider the pixels "similar enough".
+        int redDifference = Math.abs(Pixel.redOf(rgb1) - Pixel.redOf(rgb2));
+        int greenDifference = Math.abs(Pixel.greenOf(rgb1) - Pixel.greenOf(rgb2));
+        int blueDifference = Math.abs(Pixel.blueOf(rgb1) - Pixel.blueOf(rgb2));
+        
+        // Return true only if ALL color channels are within tolerance.
+        // Example with tolerance=20: RGB(255,0,0) vs RGB(240,15,10)
+        // Red: 255-240 = 15 GOOD (within 20)
+        // Green: 0-15 = 15 GOOD (within 20)
+        // Blue: 0-10 = 10 GOOD (within 20)
+        // Result: true (they're similar enough)
+        return redDifference <= colorTolerance && 
+               greenDifference <= colorTolerance && 
+               blueDifference <= colorTolerance;
+    }
+}
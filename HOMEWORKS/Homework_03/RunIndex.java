@@ -0,0 +1,90 @@
+// A small index over a run list that answers "which run covers pixel number p?" without decompressing anything.
+//
+// Storing where EVERY run starts would cost 4 more bytes per run, so only every 64th run is sampled: sampleStarts[k] is
+// the first pixel of run k * 64. A lookup binary-searches the samples (O(log runs)) and then walks forward over at
+// most 63 runs, adding up their lengths. Nothing is allocated per lookup.
+//
+// It also remembers, for every row of the image, which run covers the first pixel of that row (rowStartRuns) and where
+// that run starts (rowRunStarts), so region decoding can jump straight to any row.
+public class RunIndex {
+    private static final int SAMPLE_SHIFT = 6; // Sample every 2^6 = 64 runs.
+
+    private final RunList runs;
+    private final int[] sampleStarts;
+    private final int[] rowStartRuns;
+    private final int[] rowRunStarts;
+
+    public RunIndex(RunList runs, int width, int height) {
+        this.runs = runs;
+        this.sampleStarts = new int[(runs.size() + (1 << SAMPLE_SHIFT) - 1) >> SAMPLE_SHIFT];
+        this.rowStartRuns = new int[width > 0 ? height : 0];
+        this.rowRunStarts = new int[rowStartRuns.length];
+        int start = 0;
+        int row = 0;
+        for (int run = 0; run < runs.size(); run++) {
+            if ((run & ((1 << SAMPLE_SHIFT) - 1)) == 0) {
+                sampleStarts[run >> SAMPLE_SHIFT] = start;
+            }
+            int end = start + runs.getLength(run);
+            // This run covers the first pixel of every row that starts inside [start, end).
+            while (row < rowStartRuns.length && (long) row * width < end) {
+                rowStartRuns[row] = run;
+                rowRunStarts[row] = start;
+                row++;
+            }
+            start = end;
+        }
+    }
+
+    // Index of the run that contains pixel number 'pixel' (counted in reading order, pixel = y * width + x).
+    public int findRun(int pixel) {
+        int sample = lastSampleAtOrBefore(pixel);
+        return walkToPixel(sample << SAMPLE_SHIFT, sampleStarts[sample], pixel);
+    }
+
+    // Same as findRun, for a pixel known to be in row 'row'. The walk starts from whichever is closer to the pixel:
+    // the run that starts the row, or the nearest sampled run.
+    public int findRun(int row, int pixel) {
+        int sample = lastSampleAtOrBefore(pixel);
+        int sampleRun = sample << SAMPLE_SHIFT;
+        if (rowStartRuns[row] >= sampleRun) {
+            return walkToPixel(rowStartRuns[row], rowRunStarts[row], pixel);
+        }
+        return walkToPixel(sampleRun, sampleStarts[sample], pixel);
+    }
+
+    // Walk forward from run 'run' (which starts at pixel 'start') until the run that covers 'pixel'.
+    private int walkToPixel(int run, int start, int pixel) {
+        int runEnd = start + runs.getLength(run);
+        while (runEnd <= pixel) {
+            run++;
+            runEnd += runs.getLength(run);
+        }
+        return run;
+    }
+
+    // First pixel covered by run number 'run'.
+    public int startOfRun(int run) {
+        int sampleRun = run & ~((1 << SAMPLE_SHIFT) - 1);
+        int start = sampleStarts[run >> SAMPLE_SHIFT];
+        for (int i = sampleRun; i < run; i++) {
+            start += runs.getLength(i);
+        }
+        return start;
+    }
+
+    // Binary search for the last sample that starts at or before 'pixel'.
+    private int lastSampleAtOrBefore(int pixel) {
+        int low = 0;
+        int high = sampleStarts.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (sampleStarts[middle] <= pixel) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+// The sequence of RLE runs of an image, stored as two parallel primitive arrays instead of a list of node objects.
+// Run number i has the packed 0xRRGGBB color colors[i] and repeats lengths[i] times. An ArrayList<RLENode> needed a node
+// object, a Pixel object and a reference per run (around 50 bytes on a 64-bit JVM); here a run costs exactly 8 bytes.
+//
+// PALETTE MODE: a list created with RunList.indexed(palette) stores a 1-byte palette index per run instead of the
+// 4-byte color (see Palette), so a run costs 5 bytes. getColor still returns the packed color, looked up in the
+// palette, so code that only reads colors works the same on both kinds of lists.
+public class RunList {
+    // Size of the header the JVM puts in front of every array/object (64-bit JVM with compressed pointers).
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int OBJECT_BYTES = 32; // This object itself: header + four references + the size field.
+    public static final int MAX_PALETTE_SIZE = 256; // An index has to fit in one byte.
+
+    private int[] colors; // Packed color of every run (null in palette mode).
+    private byte[] indices; // Palette index of every run, read as unsigned (null unless in palette mode).
+    private int[] palette; // The packed colors the indices point to (null unless in palette mode).
+    private int[] lengths; // How many pixels every run covers.
+    private int size; // How many runs are actually stored (the arrays are usually a bit bigger to grow cheaply).
+
+    public RunList() {
+        this(64);
+    }
+
+    public RunList(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        this.colors = new int[capacity];
+        this.lengths = new int[capacity];
+    }
+
+    // Create an empty list in palette mode. Runs are added with addIndexed and every index must be < palette.length.
+    public static RunList indexed(int[] palette, int initialCapacity) {
+        if (palette.length == 0 || palette.length > MAX_PALETTE_SIZE) {
+            throw new IllegalArgumentException("A palette must have between 1 and " + MAX_PALETTE_SIZE + " colors, not " + palette.length + ".");
+        }
+        RunList list = new RunList(initialCapacity);
+        list.indices = new byte[list.colors.length];
+        list.colors = null;
+        list.palette = palette.clone();
+        return list;
+    }
+
+    // Add a run at the end of the sequence. The arrays grow by 50% when they are full, so adding is amortized O(1)
+    // and nothing is allocated per run.
+    public void add(int rgb, int length) {
+        if (palette != null) {
+            throw new IllegalStateException("This run list stores palette indices, use addIndexed.");
+        }
+        if (size == lengths.length) {
+            ensureCapacity(size + 1);
+        }
+        colors[size] = rgb;
+        lengths[size] = length;
+        size++;
+    }
+
+    // Add a run whose color is palette[paletteIndex] (palette mode only).
+    public void addIndexed(int paletteIndex, int length) {
+        if (palette == null) {
+            throw new IllegalStateException("This run list stores colors, use add.");
+        }
+        if (paletteIndex < 0 || paletteIndex >= palette.length) {
+            throw new IndexOutOfBoundsException("Palette index " + paletteIndex + " does not exist (the palette has " + palette.length + " colors).");
+        }
+        if (size == lengths.length) {
+            ensureCapacity(size + 1);
+        }
+        indices[size] = (byte) paletteIndex;
+        lengths[size] = length;
+        size++;
+    }
+
+    // Append the runs source[from..to) at the end of this list with two bulk array copies.
+    // Both lists must be in the same mode (and, in palette mode, share the same palette).
+    public void addAll(RunList source, int from, int to) {
+        int count = to - from;
+        if (count <= 0) {
+            return;
+        }
+        if (palette == null ? source.palette != null : !Arrays.equals(palette, source.palette)) {
+            throw new IllegalArgumentException("Runs can only be copied between lists of the same kind and palette.");
+        }
+        ensureCapacity(size + count);
+        if (palette == null) {
+            System.arraycopy(source.colors, from, colors, size, count);
+        } else {
+            System.arraycopy(source.indices, from, indices, size, count);
+        }
+        System.arraycopy(source.lengths, from, lengths, size, count);
+        size += count;
+    }
+
+    // Make sure at least 'capacity' runs fit without growing again.
+    public void ensureCapacity(int capacity) {
+        if (capacity > lengths.length) {
+            int newCapacity = Math.max(capacity, lengths.length + (lengths.length >> 1) + 1);
+            if (palette == null) {
+                colors = Arrays.copyOf(colors, newCapacity);
+            } else {
+                indices = Arrays.copyOf(indices, newCapacity);
+            }
+            lengths = Arrays.copyOf(lengths, newCapacity);
+        }
+    }
+
+    public int size() { // Number of runs stored.
+        return size;
+    }
+
+    public int getColor(int index) { // Packed color of run number 'index'.
+        return palette == null ? colors[index] : palette[indices[index] & 0xFF];
+    }
+
+    public boolean isIndexed() { // True in palette mode.
+        return palette != null;
+    }
+
+    public int getPaletteIndex(int index) { // Palette index of run number 'index' (palette mode only).
+        return indices[index] & 0xFF;
+    }
+
+    public int[] getPalette() { // A copy of the palette, or null if the runs store their colors directly.
+        return palette == null ? null : palette.clone();
+    }
+
+    public int getLength(int index) { // Length of run number 'index'.
+        return lengths[index];
+    }
+
+    // Where every run ends: entry i is the total length of runs 0..i, so run i covers the pixels
+    // [entry i-1, entry i). Computed with a parallel prefix sum (Arrays.parallelPrefix) over a copy of the lengths.
+    public int[] cumulativeLengths() {
+        int[] ends = Arrays.copyOf(lengths, size);
+        Arrays.parallelPrefix(ends, Integer::sum);
+        return ends;
+    }
+
+    public void clear() { // Forget all runs but keep the arrays so they can be reused.
+        size = 0;
+    }
+
+    // Shrink the arrays to the exact number of runs once encoding is finished, so no spare capacity stays on the heap.
+    public void trimToSize() {
+        if (size < lengths.length) {
+            if (palette == null) {
+                colors = Arrays.copyOf(colors, size);
+            } else {
+                indices = Arrays.copyOf(indices, size);
+            }
+            lengths = Arrays.copyOf(lengths, size);
+        }
+    }
+
+    // The real number of heap bytes used by this run list: the arrays at their current capacity plus their headers.
+    public long footprintBytes() {
+        long lengthBytes = ARRAY_HEADER_BYTES + 4L * lengths.length;
+        if (palette == null) {
+            return OBJECT_BYTES + lengthBytes + ARRAY_HEADER_BYTES + 4L * colors.length;
+        }
+        return OBJECT_BYTES + lengthBytes + ARRAY_HEADER_BYTES + indices.length + ARRAY_HEADER_BYTES + 4L * palette.length;
+    }
+}
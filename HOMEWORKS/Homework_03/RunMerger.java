@@ -0,0 +1,132 @@
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntPredicate;
+
+// Combines two (or three) run lists that cover the same pixels into a new run list, WITHOUT decompressing them.
+//
+// It is a merge-join: one cursor walks every list, and at every step the shortest remaining piece of the current runs
+// decides how many pixels have the same input colors on all lists. Those pixels get one output color, computed once,
+// and the cursors whose run is finished move to the next run. So the work is O(runs_a + runs_b), no matter how many
+// pixels the image has, and output pieces with the same color are merged as they are emitted.
+//
+// Palette-mode lists are read through getColor, the result always stores its colors directly.
+public class RunMerger {
+    private RunMerger() { // Only static methods.
+    }
+
+    // Per pixel: output = operation(colorOfA, colorOfB). ColorOps has ready-made operations (blend, min, max,
+    // difference); CompressedImage.combine and select are the usual way to call this.
+    public static RunList combine(RunList a, RunList b, IntBinaryOperator operation) {
+        checkSameLength(a, b);
+        Output output = new Output(a.size() + b.size());
+        int runA = 0, runB = 0;
+        int leftA = a.size() > 0 ? a.getLength(0) : 0; // Pixels of the current run not used yet.
+        int leftB = b.size() > 0 ? b.getLength(0) : 0;
+        int lastA = 0, lastB = 0, lastResult = 0;
+        boolean cached = false; // The same pair of colors often comes back (a mask over a flat area), remember it.
+        while (runA < a.size() && runB < b.size()) {
+            int colorA = a.getColor(runA);
+            int colorB = b.getColor(runB);
+            if (!cached || colorA != lastA || colorB != lastB) {
+                lastA = colorA;
+                lastB = colorB;
+                lastResult = operation.applyAsInt(colorA, colorB) & 0xFFFFFF;
+                cached = true;
+            }
+            int step = Math.min(leftA, leftB);
+            output.add(lastResult, step);
+            leftA -= step;
+            leftB -= step;
+            if (leftA == 0 && ++runA < a.size()) {
+                leftA = a.getLength(runA);
+            }
+            if (leftB == 0 && ++runB < b.size()) {
+                leftB = b.getLength(runB);
+            }
+        }
+        return output.finish();
+    }
+
+    // Per pixel: the color of 'ifSet' where the mask color passes 'test', the color of 'ifClear' everywhere else.
+    public static RunList select(RunList mask, IntPredicate test, RunList ifSet, RunList ifClear) {
+        checkSameLength(mask, ifSet);
+        checkSameLength(mask, ifClear);
+        Output output = new Output(mask.size() + ifSet.size() + ifClear.size());
+        int runMask = 0, runSet = 0, runClear = 0;
+        int leftMask = mask.size() > 0 ? mask.getLength(0) : 0;
+        int leftSet = ifSet.size() > 0 ? ifSet.getLength(0) : 0;
+        int leftClear = ifClear.size() > 0 ? ifClear.getLength(0) : 0;
+        int lastMask = 0;
+        boolean lastPassed = false;
+        boolean cached = false;
+        while (runMask < mask.size() && runSet < ifSet.size() && runClear < ifClear.size()) {
+            int maskColor = mask.getColor(runMask);
+            if (!cached || maskColor != lastMask) {
+                lastMask = maskColor;
+                lastPassed = test.test(maskColor);
+                cached = true;
+            }
+            int step = Math.min(leftMask, Math.min(leftSet, leftClear));
+            output.add(lastPassed ? ifSet.getColor(runSet) : ifClear.getColor(runClear), step);
+            leftMask -= step;
+            leftSet -= step;
+            leftClear -= step;
+            if (leftMask == 0 && ++runMask < mask.size()) {
+                leftMask = mask.getLength(runMask);
+            }
+            if (leftSet == 0 && ++runSet < ifSet.size()) {
+                leftSet = ifSet.getLength(runSet);
+            }
+            if (leftClear == 0 && ++runClear < ifClear.size()) {
+                leftClear = ifClear.getLength(runClear);
+            }
+        }
+        return output.finish();
+    }
+
+    private static void checkSameLength(RunList a, RunList b) {
+        long pixelsA = totalPixels(a);
+        long pixelsB = totalPixels(b);
+        if (pixelsA != pixelsB) {
+            throw new IllegalArgumentException("The run lists cover different numbers of pixels: " + pixelsA + " and " + pixelsB + ".");
+        }
+    }
+
+    private static long totalPixels(RunList runs) {
+        long total = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            total += runs.getLength(i);
+        }
+        return total;
+    }
+
+    // Collects the output pieces, merging each one into the run before it when the color is the same.
+    private static class Output {
+        private final RunList runs;
+        private int pendingColor;
+        private int pendingLength;
+
+        Output(int capacity) {
+            runs = new RunList(Math.max(1, capacity));
+        }
+
+        void add(int color, int length) {
+            if (pendingLength > 0 && color == pendingColor) {
+                pendingLength += length;
+                return;
+            }
+            if (pendingLength > 0) {
+                runs.add(pendingColor, pendingLength);
+            }
+            pendingColor = color;
+            pendingLength = length;
+        }
+
+        RunList finish() {
+            if (pendingLength > 0) {
+                runs.add(pendingColor, pendingLength);
+            }
+            runs.trimToSize();
+            return runs;
+        }
+    }
+}
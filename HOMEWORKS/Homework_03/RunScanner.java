@@ -0,0 +1,36 @@
+// Finds where a run ends: given the anchor color of the open run, returns the first pixel in [from, to) that is NOT
+// similar to it (see RunEncoder.similar), or 'to' if all of them are. RunEncoder calls this once per run instead of
+// comparing pixel by pixel, so a faster implementation speeds up every encoder at once.
+//
+// Two implementations exist:
+// - ScalarRunScanner: plain Java loops, always available.
+// - VectorRunScanner (in the vector/ folder): compares several pixels per instruction with the incubating Vector API
+//   (jdk.incubator.vector). It is only used when that module was added to the JVM (--add-modules jdk.incubator.vector)
+//   and the class was compiled, otherwise best() quietly falls back to the scalar version.
+public interface RunScanner {
+    int scan(int[] pixels, int from, int to, int anchor, int tolerance);
+
+    // The fastest scanner available in this JVM (chosen once).
+    static RunScanner best() {
+        return Holder.BEST;
+    }
+
+    // Lazily picks the implementation the first time best() is called.
+    final class Holder {
+        static final RunScanner BEST = pick();
+
+        private Holder() {
+        }
+
+        private static RunScanner pick() {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                try {
+                    return (RunScanner) Class.forName("VectorRunScanner").getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // Not compiled or not usable in this JVM: use the scalar loops.
+                }
+            }
+            return new ScalarRunScanner();
+        }
+    }
+}
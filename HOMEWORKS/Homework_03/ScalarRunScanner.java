@@ -0,0 +1,27 @@
+// The plain Java RunScanner. The anchor's channels are unpacked once per call instead of once per comparison, and the
+// lossless case is a single int comparison per pixel.
+public class ScalarRunScanner implements RunScanner {
+    @Override
+    public int scan(int[] pixels, int from, int to, int anchor, int tolerance) {
+        int index = from;
+        if (tolerance == 0) {
+            while (index < to && pixels[index] == anchor) {
+                index++;
+            }
+            return index;
+        }
+        int anchorRed = Pixel.redOf(anchor);
+        int anchorGreen = Pixel.greenOf(anchor);
+        int anchorBlue = Pixel.blueOf(anchor);
+        while (index < to) {
+            int color = pixels[index];
+            if (Math.abs(Pixel.redOf(color) - anchorRed) > tolerance
+                || Math.abs(Pixel.greenOf(color) - anchorGreen) > tolerance
+                || Math.abs(Pixel.blueOf(color) - anchorBlue) > tolerance) {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+}
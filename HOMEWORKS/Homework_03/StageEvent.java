@@ -0,0 +1,36 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// The JDK Flight Recorder event of one pipeline stage (see Instrumentation). JFR adds the start time, the duration and
+// the thread by itself. It is only recorded while a recording with this event enabled is running, e.g.
+//   java -XX:StartFlightRecording:filename=run.jfr ...
+// and then shows up in JDK Mission Control (or 'jfr print --events Multimedios.Stage run.jfr').
+@Name("Multimedios.Stage")
+@Label("Image Pipeline Stage")
+@Category({"Multimedios", "RLE"})
+@Description("One stage of the image pipeline: load, analyze, decompress, verify or save.")
+@StackTrace(false) // The stage name says where it happened, a stack trace per event would only cost time.
+class StageEvent extends Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("Pixels")
+    long pixels;
+
+    @Label("Runs")
+    long runs;
+
+    @Label("Bytes Read/Written")
+    @DataAmount
+    long bytes;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the thread during the stage (-1 if the JVM can't measure it).")
+    @DataAmount
+    long allocatedBytes;
+}
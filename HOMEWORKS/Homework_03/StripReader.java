@@ -0,0 +1,96 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Reads an image file one horizontal strip of rows at a time, instead of loading the whole picture like ImageIO.read.
+// Each call asks the ImageReader for a source region of 'stripHeight' rows and copies it into a packed 0xRRGGBB buffer,
+// so the memory needed is proportional to the strip height, not to the image size.
+// Formats like JPEG can't jump straight to a row, so the reader has to skip through the compressed data before every
+// strip. That costs time, not memory: keep strips tall (a few hundred rows) so there are only a few of those skips.
+public class StripReader implements Closeable {
+    public static final int DEFAULT_STRIP_HEIGHT = 256; // A good balance between memory and number of strips.
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private int nextRow = 0; // First row of the next strip.
+    private BufferedImage reusable; // The decoded strip is kept and reused as the destination of the next read.
+
+    public StripReader(String filePath, int stripHeight) throws IOException {
+        File file = new File(filePath);
+
+        // Same validations as CustomImage.fromFile.
+        if (!file.canRead()) {
+            throw new IOException("PERMISSION ERROR: Java does not have permission to read: " + filePath);
+        }
+        if (file.length() == 0) {
+            throw new IOException("FILE ERROR: The file '" + file.getName() + "' is empty (0 bytes).");
+        }
+        if (stripHeight <= 0) {
+            throw new IllegalArgumentException("The strip height must be at least 1 row.");
+        }
+
+        this.input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("FILE ERROR: could not open '" + file.getName() + "'.");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("FORMAT ERROR: '" + file.getName() + "' is not a valid image or the format is not supported by ImageIO.");
+        }
+        this.reader = readers.next();
+        reader.setInput(input, true, true); // Forward only: we never go back to earlier rows.
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+        this.stripHeight = stripHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStripHeight() {
+        return stripHeight;
+    }
+
+    // Read the next strip into 'buffer' (at least width * stripHeight ints), row after row.
+    // Returns how many rows were read, or 0 when the whole image has been read.
+    public int readStrip(int[] buffer) throws IOException {
+        if (nextRow >= height) {
+            return 0;
+        }
+        int rows = Math.min(stripHeight, height - nextRow);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, nextRow, width, rows));
+        if (reusable != null) {
+            param.setDestination(reusable); // Decode into the previous strip's image instead of allocating a new one.
+        }
+        BufferedImage strip = reader.read(0, param);
+        reusable = strip;
+
+        // Copy the strip into the packed buffer straight from its raster (see RasterAccess).
+        RasterAccess.readPixels(strip, width, rows, buffer, 0);
+        nextRow += rows;
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
@@ -0,0 +1,92 @@
+// Finds the smallest color tolerance whose compression fits in a budget of runs (see CompressedImage.compressToSize).
+//
+// Trying every tolerance from 0 to 255 with a full analyze would be 256 encodes. Instead:
+//   1. ONE pass builds a histogram of the biggest channel difference between every pixel and the next one.
+//      If two neighbours differ by more than 2 * tolerance in some channel, no anchor color can be within the tolerance
+//      of both, so a new run MUST start there. That gives, for every tolerance at once, a lower bound on the run count,
+//      and every tolerance whose lower bound is already over the budget is skipped without encoding anything.
+//   2. A binary search over the remaining tolerances. Every candidate is encoded by only COUNTING the runs (nothing is
+//      stored), and the count stops as soon as it goes over the budget, so the candidates that are too small are cheap.
+// In total that is one histogram pass plus at most 8 counting passes (most of them cut short).
+//
+// The binary search assumes that a bigger tolerance never gives more runs. That is true for almost every image, but the
+// anchor color can make a few tolerances break the rule by a handful of runs; the tolerance found always fits the budget.
+public class ToleranceSearch {
+    public static final int MAX_TOLERANCE = 255; // With this tolerance every pixel is similar to every other one.
+
+    private ToleranceSearch() {
+    }
+
+    // The smallest tolerance (0..255) whose runs, over these packed pixels, are no more than maxRuns.
+    public static int findTolerance(int[] pixels, long maxRuns) {
+        if (maxRuns < 1) {
+            throw new IllegalArgumentException("At least one run is needed to store an image, the budget allows " + maxRuns + ".");
+        }
+
+        // Step 1: histogram of the neighbour differences and the lower bound of every tolerance.
+        long[] differences = new long[256];
+        for (int i = 1; i < pixels.length; i++) {
+            differences[maxChannelDifference(pixels[i - 1], pixels[i])]++;
+        }
+        long[] breaksAbove = new long[257]; // breaksAbove[d] = number of neighbour pairs that differ by d or more.
+        for (int d = 255; d >= 0; d--) {
+            breaksAbove[d] = breaksAbove[d + 1] + differences[d];
+        }
+        int low = 0;
+        while (low < MAX_TOLERANCE && minimumRuns(breaksAbove, low, pixels.length) > maxRuns) {
+            low++;
+        }
+
+        // Step 2: binary search with counting encodes between the lower bound and the tolerance that always fits.
+        int high = MAX_TOLERANCE;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (countRuns(pixels, middle, maxRuns) <= maxRuns) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return high;
+    }
+
+    // How many runs analyze would produce with this tolerance, but stopping once the count is bigger than 'limit'
+    // (the result is then limit + 1). Nothing is allocated.
+    public static long countRuns(int[] pixels, int tolerance, long limit) {
+        if (pixels.length == 0) {
+            return 0;
+        }
+        RunScanner scanner = RunScanner.best();
+        long runs = 1;
+        int index = 1;
+        int anchor = pixels[0];
+        while (index < pixels.length) {
+            index = scanner.scan(pixels, index, pixels.length, anchor, tolerance);
+            if (index < pixels.length) {
+                if (++runs > limit) {
+                    return runs;
+                }
+                anchor = pixels[index];
+                index++;
+            }
+        }
+        return runs;
+    }
+
+    // Runs that are unavoidable with this tolerance: one plus every neighbour pair that differs by more than 2 * tolerance.
+    private static long minimumRuns(long[] breaksAbove, int tolerance, int pixelCount) {
+        if (pixelCount == 0) {
+            return 0;
+        }
+        int first = 2 * tolerance + 1;
+        return 1 + (first > 255 ? 0 : breaksAbove[first]);
+    }
+
+    // The biggest difference between the two colors in any channel (what the tolerance is compared with).
+    private static int maxChannelDifference(int rgb1, int rgb2) {
+        int red = Math.abs(Pixel.redOf(rgb1) - Pixel.redOf(rgb2));
+        int green = Math.abs(Pixel.greenOf(rgb1) - Pixel.greenOf(rgb2));
+        int blue = Math.abs(Pixel.blueOf(rgb1) - Pixel.blueOf(rgb2));
+        return Math.max(red, Math.max(green, blue));
+    }
+}
@@ -0,0 +1,49 @@
+import bench.ImagePipeline;
+import java.io.IOException;
+
+// Default-package side of bench.ImagePipeline (see that interface for why it exists).
+public class PipelineBridge implements ImagePipeline {
+    @Override
+    public Object load(String path) throws IOException {
+        return CustomImage.fromFile(path);
+    }
+
+    @Override
+    public Object compress(Object image, int tolerance) {
+        CompressedImage compressor = quiet(new CompressedImage(tolerance));
+        compressor.analyze((CustomImage) image);
+        return compressor;
+    }
+
+    @Override
+    public Object compressParallel(Object image, int tolerance) {
+        CompressedImage compressor = quiet(new CompressedImage(tolerance));
+        compressor.analyzeParallel((CustomImage) image);
+        return compressor;
+    }
+
+    @Override
+    public Object decompress(Object compressed) {
+        return ((CompressedImage) compressed).decompress();
+    }
+
+    @Override
+    public Object decompressParallel(Object compressed) {
+        return ((CompressedImage) compressed).decompressParallel();
+    }
+
+    @Override
+    public void save(Object image, String path) throws IOException {
+        ((CustomImage) image).saveToFile(path);
+    }
+
+    @Override
+    public int runCount(Object compressed) {
+        return ((CompressedImage) compressed).getRuns().size();
+    }
+
+    private static CompressedImage quiet(CompressedImage compressor) {
+        compressor.setVerbose(false); // Don't measure (or flood the JMH log with) progress messages.
+        return compressor;
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import java.io.File;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Entry point of target/benchmarks.jar. Runs the benchmarks with the GC profiler (allocation rate per operation) and
+// writes the results as JSON so they can be compared between commits. Any normal JMH command-line option still works
+// and overrides these defaults, e.g. "java -jar target/benchmarks.jar compress -p image=neon".
+//
+// The test images are searched in ../Images/Test_Images (running from benchmarks/) or Images/Test_Images (running from
+// Homework_03/); use -Dimages.dir=... to point somewhere else.
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getIncludes().isEmpty()) {
+            builder.include(PipelineBenchmark.class.getSimpleName());
+        }
+        Options options = builder
+            .addProfiler(GCProfiler.class)
+            .resultFormat(commandLine.getResultFormat().orElse(ResultFormatType.JSON))
+            .result(commandLine.getResult().orElse("target/jmh-result.json"))
+            // Forked JVMs need the Vector API module and the same image folder.
+            .jvmArgsAppend("--add-modules", "jdk.incubator.vector", "-Dimages.dir=" + imagesDirectory().getAbsolutePath())
+            .build();
+        try {
+            new Runner(options).run();
+        } catch (RunnerException e) {
+            System.out.println("Error: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    // Folder that holds the test images (see the class comment).
+    static File imagesDirectory() {
+        String configured = System.getProperty("images.dir");
+        if (configured != null) {
+            return new File(configured);
+        }
+        for (String candidate : new String[] {"../Images/Test_Images", "Images/Test_Images"}) {
+            File folder = new File(candidate);
+            if (folder.isDirectory()) {
+                return folder;
+            }
+        }
+        throw new IllegalStateException("Test_Images folder not found; run from benchmarks/ or pass -Dimages.dir=...");
+    }
+}
@@ -0,0 +1,33 @@
+package bench;
+
+import java.io.IOException;
+
+// The stages of the Homework_03 pipeline, as seen by the benchmarks.
+//
+// JMH refuses benchmark classes in the default package, and a class inside a package can't import default-package
+// classes (CustomImage, CompressedImage...). So the benchmarks talk to this interface, and PipelineBridge (in the
+// default package, next to the homework classes) implements it. The objects are passed around as Object.
+public interface ImagePipeline {
+    Object load(String path) throws IOException; // CustomImage.fromFile
+
+    Object compress(Object image, int tolerance); // new CompressedImage(tolerance).analyze(image)
+
+    Object compressParallel(Object image, int tolerance); // analyzeParallel
+
+    Object decompress(Object compressed); // CompressedImage.decompress
+
+    Object decompressParallel(Object compressed); // CompressedImage.decompressParallel
+
+    void save(Object image, String path) throws IOException; // CustomImage.saveToFile
+
+    int runCount(Object compressed);
+
+    // The bridge is loaded by name, once, because it lives in the default package.
+    static ImagePipeline load() {
+        try {
+            return (ImagePipeline) Class.forName("PipelineBridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("PipelineBridge is missing from the benchmark build", e);
+        }
+    }
+}
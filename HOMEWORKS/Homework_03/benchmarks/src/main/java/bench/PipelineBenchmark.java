@@ -0,0 +1,110 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One benchmark per stage of the pipeline: load (CustomImage.fromFile), compress (analyze / analyzeParallel),
+// decompress (decompress / decompressParallel) and save (saveToFile). Each stage gets its input prepared in @Setup, so
+// only the stage itself is measured.
+//
+// The parameters live in two states, so every benchmark only runs for the parameters it really uses: load and save
+// don't depend on the tolerance and only get ImageState (one run per image), while compress and decompress get
+// CodecState (one run per image and tolerance).
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+    // Input of the tolerance-independent stages: the image file and the decoded image.
+    @State(Scope.Benchmark)
+    public static class ImageState {
+        @Param({"plankton", "troll", "smile", "neon", "wall", "diamond"})
+        public String image;
+
+        ImagePipeline pipeline;
+        String imagePath;
+        Object loaded; // CustomImage
+        File saveTarget;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pipeline = ImagePipeline.load();
+            imagePath = new File(BenchmarkMain.imagesDirectory(), image + ".jpg").getAbsolutePath();
+            loaded = pipeline.load(imagePath);
+            saveTarget = Files.createTempFile("rle-bench-" + image, ".jpg").toFile();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            saveTarget.delete();
+        }
+    }
+
+    // Input of the compression stages, for every image and tolerance.
+    @State(Scope.Benchmark)
+    public static class CodecState {
+        @Param({"plankton", "troll", "smile", "neon", "wall", "diamond"})
+        public String image;
+
+        @Param({"0", "10", "20", "40"})
+        public int tolerance;
+
+        ImagePipeline pipeline;
+        Object loaded; // CustomImage
+        Object compressed; // CompressedImage
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            pipeline = ImagePipeline.load();
+            loaded = pipeline.load(new File(BenchmarkMain.imagesDirectory(), image + ".jpg").getAbsolutePath());
+            compressed = pipeline.compress(loaded, tolerance);
+        }
+    }
+
+    @Benchmark
+    public Object load(ImageState state) throws IOException {
+        return state.pipeline.load(state.imagePath);
+    }
+
+    @Benchmark
+    public Object compress(CodecState state) {
+        return state.pipeline.compress(state.loaded, state.tolerance);
+    }
+
+    @Benchmark
+    public Object compressParallel(CodecState state) {
+        return state.pipeline.compressParallel(state.loaded, state.tolerance);
+    }
+
+    @Benchmark
+    public Object decompress(CodecState state) {
+        return state.pipeline.decompress(state.compressed);
+    }
+
+    @Benchmark
+    public Object decompressParallel(CodecState state) {
+        return state.pipeline.decompressParallel(state.compressed);
+    }
+
+    // Saves the decoded original: the time of saveToFile depends on the image size, not on how it was compressed.
+    @Benchmark
+    public void save(ImageState state) throws IOException {
+        state.pipeline.save(state.loaded, state.saveTarget.getAbsolutePath());
+    }
+}